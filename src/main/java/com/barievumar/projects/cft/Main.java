@@ -3,6 +3,7 @@ package com.barievumar.projects.cft;
 import com.barievumar.projects.cft.enums.DataType;
 import com.barievumar.projects.cft.enums.SortDirection;
 import com.barievumar.projects.cft.sort.MergeSort;
+import com.barievumar.projects.cft.sort.SortOptions;
 
 import java.io.*;
 import java.nio.file.Files;
@@ -30,6 +31,10 @@ public class Main {
      * Список путей к входным файлам.
      */
     private static List<Path> inputFilePaths;
+    /**
+     * Дополнительные параметры сортировки.
+     */
+    private static SortOptions options;
 
     /**
      * Логгер.
@@ -38,7 +43,7 @@ public class Main {
 
     public static void main(String[] args) throws IOException {
         verifyArguments(args);
-        MergeSort.sortAndWrite(dataType, direction, outputFilePath, inputFilePaths.toArray(new Path[]{}));
+        MergeSort.sortAndWrite(dataType, direction, options, outputFilePath, inputFilePaths.toArray(new Path[]{}));
     }
 
     /**
@@ -47,11 +52,42 @@ public class Main {
      * @param args входные аргументы программы.
      */
     public static void verifyArguments(String[] args) {
+        var arguments = parseArguments(args);
+        direction = arguments.getDirection();
+        dataType = arguments.getDataType();
+        outputFilePath = arguments.getOutputFilePath();
+        inputFilePaths = arguments.getInputFilePaths();
+        options = arguments.getOptions();
+    }
+
+    /**
+     * Метод, выполняющий проверку входных аргументов программы. В отличие от verifyArguments,
+     * не изменяет статические поля, поэтому может вызываться одновременно из нескольких потоков.
+     *
+     * @param args входные аргументы программы.
+     * @return проверенные аргументы задания сортировки.
+     * @see SortArguments
+     */
+    public static SortArguments parseArguments(String[] args) {
+        SortDirection direction = null;
+        DataType dataType = null;
+        Path outputFilePath = null;
+        List<Path> inputFilePaths = null;
+
+        var options = new SortOptions();
+
         var argsIndex = 0;
         try {
+            // получаем дополнительные параметры
+            while (argsIndex < args.length && SortOptions.isOption(args[argsIndex])) {
+                options.apply(args[argsIndex]);
+                argsIndex++;
+            }
+            if (argsIndex > 0) logger.info("Options: " + options);
+
             // получаем направление сортировки
-            if (SortDirection.getAllValues().contains(args[0])) {
-                if (args[0].equals(SortDirection.DESCENDING.getValue())) direction = SortDirection.DESCENDING;
+            if (SortDirection.getAllValues().contains(args[argsIndex])) {
+                if (args[argsIndex].equals(SortDirection.DESCENDING.getValue())) direction = SortDirection.DESCENDING;
                 else direction = SortDirection.ASCENDING;
                 logger.info("Sort direction: " + direction);
                 argsIndex++;
@@ -88,5 +124,7 @@ public class Main {
         if (inputFilePaths.size()==0) {
             throw new IllegalArgumentException("Wrong Input! No existing input files!");
         }
+
+        return new SortArguments(direction, dataType, outputFilePath, inputFilePaths, options);
     }
 }
@@ -0,0 +1,82 @@
+package com.barievumar.projects.cft;
+
+import com.barievumar.projects.cft.enums.DataType;
+import com.barievumar.projects.cft.enums.SortDirection;
+import com.barievumar.projects.cft.sort.SortOptions;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Проверенные аргументы одного задания сортировки.
+ * В отличие от статических полей Main, экземпляр можно безопасно использовать из нескольких потоков.
+ */
+public class SortArguments {
+    /**
+     * Направление сортировки.
+     */
+    private final SortDirection direction;
+    /**
+     * Тип данных.
+     */
+    private final DataType dataType;
+    /**
+     * Путь к выходному файлу.
+     */
+    private final Path outputFilePath;
+    /**
+     * Список путей к входным файлам.
+     */
+    private final List<Path> inputFilePaths;
+    /**
+     * Дополнительные параметры сортировки.
+     */
+    private final SortOptions options;
+
+    /**
+     * Конструктор
+     *
+     * @param direction      направление сортировки.
+     * @param dataType       тип данных.
+     * @param outputFilePath путь к выходному файлу.
+     * @param inputFilePaths пути к входным файлам.
+     * @param options        дополнительные параметры сортировки.
+     */
+    public SortArguments(SortDirection direction, DataType dataType, Path outputFilePath, List<Path> inputFilePaths,
+                         SortOptions options) {
+        this.direction = direction;
+        this.dataType = dataType;
+        this.outputFilePath = outputFilePath;
+        this.inputFilePaths = List.copyOf(inputFilePaths);
+        this.options = options;
+    }
+
+    public SortDirection getDirection() {
+        return direction;
+    }
+
+    public DataType getDataType() {
+        return dataType;
+    }
+
+    public Path getOutputFilePath() {
+        return outputFilePath;
+    }
+
+    public List<Path> getInputFilePaths() {
+        return inputFilePaths;
+    }
+
+    public SortOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * Метод, возвращающий пути к входным файлам в виде массива.
+     *
+     * @return массив путей к входным файлам.
+     */
+    public Path[] getInputFilePathsAsArray() {
+        return inputFilePaths.toArray(new Path[]{});
+    }
+}
@@ -3,6 +3,9 @@ package com.barievumar.projects.cft.enums;
 import com.barievumar.projects.cft.parsers.IntegerParser;
 import com.barievumar.projects.cft.parsers.Parser;
 import com.barievumar.projects.cft.parsers.StringParser;
+import com.barievumar.projects.cft.runs.IntegerRunFormat;
+import com.barievumar.projects.cft.runs.RunFormat;
+import com.barievumar.projects.cft.runs.StringRunFormat;
 
 import java.util.List;
 import java.util.stream.Collectors;
@@ -12,8 +15,8 @@ import java.util.stream.Stream;
  * Enum, содержащий типы данных, с которыми работают алгоритмы сортировки.
  */
 public enum DataType {
-    INTEGER("-i", Integer.class, new IntegerParser()),
-    STRING("-s", String.class, new StringParser());
+    INTEGER("-i", Integer.class, new IntegerParser(), new IntegerRunFormat()),
+    STRING("-s", String.class, new StringParser(), new StringRunFormat());
 
     /**
      * Значение типа данных как аргумента.
@@ -27,11 +30,16 @@ public enum DataType {
      * Парсер соответствующего типа данных.
      */
     private final Parser<?> parser;
+    /**
+     * Формат записей временных серий соответствующего типа данных.
+     */
+    private final RunFormat<?> runFormat;
 
-    DataType(String value, Class<?> aClass, Parser<?> parser) {
+    DataType(String value, Class<?> aClass, Parser<?> parser, RunFormat<?> runFormat) {
         this.value = value;
         this.aClass = aClass;
         this.parser = parser;
+        this.runFormat = runFormat;
     }
 
     public String getValue() {
@@ -46,6 +54,10 @@ public enum DataType {
         return parser;
     }
 
+    public RunFormat<?> getRunFormat() {
+        return runFormat;
+    }
+
     /**
      * Метод, возвращающий все возможные значения типов данных.
      *
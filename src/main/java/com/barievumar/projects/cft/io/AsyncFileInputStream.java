@@ -0,0 +1,187 @@
+package com.barievumar.projects.cft.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Входной поток, читающий файл блоками через AsynchronousFileChannel. Буферы образуют кольцо:
+ * при открытии запрашиваются первые bufferCount блоков, а каждый разобранный буфер сразу запрашивается
+ * под следующий непрочитанный блок, поэтому диск работает, пока читатель разбирает текущий блок.
+ * Размер файла фиксируется при открытии, поток предназначен для файлов, которые уже не изменяются.
+ *
+ * @see BlockIo
+ */
+class AsyncFileInputStream extends InputStream {
+    /**
+     * Канал файла.
+     */
+    private final AsynchronousFileChannel channel;
+    /**
+     * Параметры и статистика ввода-вывода.
+     */
+    private final BlockIo io;
+    /**
+     * Размер файла.
+     */
+    private final long size;
+    /**
+     * Буферы блоков.
+     */
+    private final byte[][] blocks;
+    /**
+     * Незавершенные чтения буферов, null - буферу больше нечего читать.
+     */
+    private final CompletableFuture<Integer>[] pending;
+
+    /**
+     * Позиция в файле следующего блока, который еще не запрошен.
+     */
+    private long nextPosition;
+    /**
+     * Номер буфера, который разбирается или будет разбираться следующим.
+     */
+    private int current;
+    /**
+     * Разбираемый буфер, null - буфер еще не получен.
+     */
+    private byte[] block;
+    /**
+     * Позиция чтения в block.
+     */
+    private int position;
+    /**
+     * Количество байтов в block.
+     */
+    private int limit;
+
+    /**
+     * Конструктор
+     *
+     * @param file файл.
+     * @param io   параметры и статистика ввода-вывода.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    AsyncFileInputStream(Path file, BlockIo io) throws IOException {
+        this.channel = AsynchronousFileChannel.open(file, StandardOpenOption.READ);
+        this.io = io;
+        try {
+            this.size = channel.size();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        // маленьким файлам не нужны буферы полного размера
+        var blockSize = (int) Math.max(1, Math.min(io.getBufferSize(), size));
+        var count = (int) Math.max(1, Math.min(io.getBufferCount(), (size + blockSize - 1) / blockSize));
+        this.blocks = new byte[count][blockSize];
+        this.pending = new CompletableFuture[count];
+        for (int i = 0; i < count; i++) {
+            request(i);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == limit && !nextBlock()) return -1;
+        return block[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) return 0;
+        var total = 0;
+        while (total < length) {
+            if (position == limit && !nextBlock()) break;
+            var count = Math.min(length - total, limit - position);
+            System.arraycopy(block, position, bytes, offset + total, count);
+            position += count;
+            total += count;
+        }
+        return total == 0 ? -1 : total;
+    }
+
+    @Override
+    public int available() {
+        return limit - position;
+    }
+
+    /**
+     * Метод, переходящий к следующему блоку. Разобранный буфер запрашивается под следующий непрочитанный блок.
+     *
+     * @return true, если блок получен, false, если достигнут конец файла.
+     */
+    private boolean nextBlock() throws IOException {
+        if (block != null) {
+            request(current);
+            current = (current + 1) % blocks.length;
+            block = null;
+            position = limit = 0;
+        }
+        var read = pending[current];
+        if (read == null) return false;
+        limit = io.awaitRead(read);
+        block = blocks[current];
+        position = 0;
+        return true;
+    }
+
+    /**
+     * Метод, запрашивающий чтение следующего непрочитанного блока в буфер.
+     *
+     * @param index номер буфера.
+     */
+    private void request(int index) {
+        if (nextPosition >= size) {
+            pending[index] = null;
+            return;
+        }
+        var length = (int) Math.min(blocks[index].length, size - nextPosition);
+        var read = new CompletableFuture<Integer>();
+        readFully(ByteBuffer.wrap(blocks[index], 0, length), nextPosition, read);
+        pending[index] = read;
+        nextPosition += length;
+    }
+
+    /**
+     * Метод, читающий буфер целиком: если канал прочитал меньше, чтение продолжается с того же места.
+     *
+     * @param buffer   буфер, position которого равен 0.
+     * @param position позиция блока в файле.
+     * @param result   результат чтения - количество прочитанных байтов.
+     */
+    private void readFully(ByteBuffer buffer, long position, CompletableFuture<Integer> result) {
+        channel.read(buffer, position, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer count, Void attachment) {
+                if (count < 0) {
+                    result.completeExceptionally(new EOFException("File became shorter while reading"));
+                } else if (buffer.hasRemaining()) {
+                    channel.read(buffer, position + buffer.position(), null, this);
+                } else {
+                    result.complete(buffer.position());
+                }
+            }
+
+            @Override
+            public void failed(Throwable e, Void attachment) {
+                result.completeExceptionally(e);
+            }
+        });
+    }
+
+    /**
+     * Метод, закрывающий канал. Незавершенные чтения отменяются.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,160 @@
+package com.barievumar.projects.cft.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Выходной поток, записывающий файл блоками через AsynchronousFileChannel. Заполненный буфер отправляется
+ * на запись, и писатель сразу продолжает со следующим буфером кольца. Ждать приходится, только если
+ * все буферы еще записываются. Буферы создаются по мере надобности, поэтому маленьким файлам хватает одного.
+ * Ошибка записи блока выбрасывается при следующем ожидании этого буфера или при закрытии потока.
+ * Данные гарантированно записаны только после close(), flush() запись не ускоряет.
+ *
+ * @see BlockIo
+ */
+class AsyncFileOutputStream extends OutputStream {
+    /**
+     * Канал файла.
+     */
+    private final AsynchronousFileChannel channel;
+    /**
+     * Параметры и статистика ввода-вывода.
+     */
+    private final BlockIo io;
+    /**
+     * Буферы блоков, создаются при первом использовании.
+     */
+    private final byte[][] blocks;
+    /**
+     * Незавершенные записи буферов.
+     */
+    private final CompletableFuture<Integer>[] pending;
+
+    /**
+     * Позиция в файле следующего блока.
+     */
+    private long filePosition;
+    /**
+     * Номер заполняемого буфера.
+     */
+    private int current;
+    /**
+     * Заполняемый буфер.
+     */
+    private byte[] block;
+    /**
+     * Количество байтов в block.
+     */
+    private int position;
+    /**
+     * true, если поток закрыт.
+     */
+    private boolean closed;
+
+    /**
+     * Конструктор
+     *
+     * @param file файл, создается или перезаписывается.
+     * @param io   параметры и статистика ввода-вывода.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    AsyncFileOutputStream(Path file, BlockIo io) throws IOException {
+        this.channel = AsynchronousFileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.io = io;
+        this.blocks = new byte[io.getBufferCount()][];
+        this.pending = new CompletableFuture[io.getBufferCount()];
+        this.block = blocks[0] = new byte[io.getBufferSize()];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (position == block.length) submit();
+        block[position++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (position == block.length) submit();
+            var count = Math.min(length, block.length - position);
+            System.arraycopy(bytes, offset, block, position, count);
+            position += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Метод, отправляющий заполненную часть буфера на запись и переходящий к следующему буферу кольца.
+     * Если следующий буфер еще записывается, метод ждет окончания записи.
+     */
+    private void submit() throws IOException {
+        if (position == 0) return;
+        var write = new CompletableFuture<Integer>();
+        writeFully(ByteBuffer.wrap(block, 0, position), filePosition, write);
+        pending[current] = write;
+        filePosition += position;
+
+        current = (current + 1) % blocks.length;
+        if (pending[current] != null) {
+            var previous = pending[current];
+            pending[current] = null;
+            io.awaitWrite(previous);
+        }
+        if (blocks[current] == null) blocks[current] = new byte[io.getBufferSize()];
+        block = blocks[current];
+        position = 0;
+    }
+
+    /**
+     * Метод, записывающий буфер целиком: если канал записал меньше, запись продолжается с того же места.
+     *
+     * @param buffer   буфер, position которого равен 0.
+     * @param position позиция блока в файле.
+     * @param result   результат записи - количество записанных байтов.
+     */
+    private void writeFully(ByteBuffer buffer, long position, CompletableFuture<Integer> result) {
+        channel.write(buffer, position, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer count, Void attachment) {
+                if (buffer.hasRemaining()) {
+                    channel.write(buffer, position + buffer.position(), null, this);
+                } else {
+                    result.complete(buffer.position());
+                }
+            }
+
+            @Override
+            public void failed(Throwable e, Void attachment) {
+                result.completeExceptionally(e);
+            }
+        });
+    }
+
+    /**
+     * Метод, записывающий оставшиеся данные, ожидающий окончания всех записей и закрывающий канал.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            submit();
+            for (int i = 0; i < pending.length; i++) {
+                if (pending[i] == null) continue;
+                var write = pending[i];
+                pending[i] = null;
+                io.awaitWrite(write);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+}
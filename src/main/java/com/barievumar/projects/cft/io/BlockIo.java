@@ -0,0 +1,180 @@
+package com.barievumar.projects.cft.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Параметры и статистика блочного асинхронного ввода-вывода одного задания. Файлы читаются и пишутся
+ * через AsynchronousFileChannel блоками по bufferSize байт с bufferCount буферами на файл: пока один блок
+ * разбирается или заполняется, следующие блоки уже читаются, а предыдущие - записываются.
+ * Два буфера дают двойную буферизацию, три - тройную.
+ * <p>
+ * Время, которое потоки сортировки и слияния провели в ожидании диска, суммируется по всем файлам задания.
+ * Экземпляр может использоваться из нескольких потоков.
+ *
+ * @see AsyncFileInputStream
+ * @see AsyncFileOutputStream
+ */
+public class BlockIo {
+    /**
+     * Количество буферов на файл по умолчанию.
+     */
+    public static final int DEFAULT_BUFFER_COUNT = 2;
+    /**
+     * Максимальное количество буферов на файл.
+     */
+    public static final int MAX_BUFFER_COUNT = 16;
+
+    /**
+     * Количество буферов на файл.
+     */
+    private final int bufferCount;
+    /**
+     * Размер одного буфера.
+     */
+    private final int bufferSize;
+
+    /**
+     * Количество прочитанных байтов.
+     */
+    private final LongAdder bytesRead = new LongAdder();
+    /**
+     * Количество прочитанных блоков.
+     */
+    private final LongAdder blocksRead = new LongAdder();
+    /**
+     * Количество прочитанных блоков, которых пришлось ждать.
+     */
+    private final LongAdder readStalls = new LongAdder();
+    /**
+     * Время ожидания чтения.
+     */
+    private final LongAdder readWaitNanos = new LongAdder();
+    /**
+     * Количество записанных байтов.
+     */
+    private final LongAdder bytesWritten = new LongAdder();
+    /**
+     * Количество записанных блоков.
+     */
+    private final LongAdder blocksWritten = new LongAdder();
+    /**
+     * Количество ожиданий освобождения буфера записи.
+     */
+    private final LongAdder writeStalls = new LongAdder();
+    /**
+     * Время ожидания записи.
+     */
+    private final LongAdder writeWaitNanos = new LongAdder();
+
+    /**
+     * Конструктор
+     *
+     * @param bufferCount количество буферов на файл, от 1 до MAX_BUFFER_COUNT.
+     * @param bufferSize  размер одного буфера.
+     */
+    public BlockIo(int bufferCount, int bufferSize) {
+        if (bufferCount < 1 || bufferCount > MAX_BUFFER_COUNT || bufferSize <= 0) {
+            throw new IllegalArgumentException("Wrong I/O buffers: " + bufferCount + " x " + bufferSize + " bytes");
+        }
+        this.bufferCount = bufferCount;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Метод, открывающий файл для чтения с опережающим чтением блоков.
+     *
+     * @param file файл.
+     * @return входной поток.
+     */
+    public InputStream newInputStream(Path file) throws IOException {
+        return new AsyncFileInputStream(file, this);
+    }
+
+    /**
+     * Метод, создающий или перезаписывающий файл, блоки которого записываются в фоне.
+     *
+     * @param file файл.
+     * @return выходной поток.
+     */
+    public OutputStream newOutputStream(Path file) throws IOException {
+        return new AsyncFileOutputStream(file, this);
+    }
+
+    public int getBufferCount() {
+        return bufferCount;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Метод, ожидающий чтения блока и учитывающий время ожидания.
+     *
+     * @param read операция чтения блока.
+     * @return количество прочитанных байтов.
+     */
+    int awaitRead(Future<Integer> read) throws IOException {
+        if (!read.isDone()) readStalls.increment();
+        var count = await(read, readWaitNanos);
+        bytesRead.add(count);
+        blocksRead.increment();
+        return count;
+    }
+
+    /**
+     * Метод, ожидающий записи блока, чтобы переиспользовать его буфер, и учитывающий время ожидания.
+     *
+     * @param write операция записи блока.
+     */
+    void awaitWrite(Future<Integer> write) throws IOException {
+        if (!write.isDone()) writeStalls.increment();
+        var count = await(write, writeWaitNanos);
+        bytesWritten.add(count);
+        blocksWritten.increment();
+    }
+
+    /**
+     * Метод, ожидающий завершения операции ввода-вывода.
+     *
+     * @param operation операция.
+     * @param waitNanos счетчик времени ожидания.
+     * @return результат операции.
+     */
+    private static int await(Future<Integer> operation, LongAdder waitNanos) throws IOException {
+        var start = System.nanoTime();
+        try {
+            return operation.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Waiting for I/O is interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) throw cause;
+            throw new IOException(e.getCause());
+        } finally {
+            waitNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Метод, возвращающий отчет о вводе-выводе задания.
+     *
+     * @return отчет для лога.
+     */
+    @Override
+    public String toString() {
+        var size = bufferSize % 1024 == 0 ? bufferSize / 1024 + " KB" : bufferSize + " bytes";
+        return "I/O buffers " + bufferCount + " x " + size + " per file"
+                + ", read " + bytesRead.sum() / 1024 + " KB in " + blocksRead.sum() + " blocks"
+                + " (waited " + readWaitNanos.sum() / 1_000_000 + " ms for " + readStalls.sum() + " blocks)"
+                + ", written " + bytesWritten.sum() / 1024 + " KB in " + blocksWritten.sum() + " blocks"
+                + " (waited " + writeWaitNanos.sum() / 1_000_000 + " ms for " + writeStalls.sum() + " blocks)";
+    }
+}
@@ -0,0 +1,170 @@
+package com.barievumar.projects.cft.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Диапазон байтов файла [start, end), границы которого совпадают с началами строк.
+ * Позволяет читать части одного большого файла независимо, в нескольких потоках.
+ */
+public class FileChunk {
+    /**
+     * Размер буфера для поиска перевода строки.
+     */
+    private static final int SCAN_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Путь к файлу.
+     */
+    private final Path path;
+    /**
+     * Номер части в файле, начиная с 0.
+     */
+    private final int index;
+    /**
+     * Начало части.
+     */
+    private final long start;
+    /**
+     * Конец части, не включительно.
+     */
+    private final long end;
+
+    /**
+     * Конструктор
+     *
+     * @param path  путь к файлу.
+     * @param index номер части в файле, начиная с 0.
+     * @param start начало части.
+     * @param end   конец части, не включительно.
+     */
+    public FileChunk(Path path, int index, long start, long end) {
+        this.path = path;
+        this.index = index;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Метод, разбивающий файл примерно на count частей равного размера. Каждая граница сдвигается вперед
+     * до начала следующей строки, поэтому строка целиком попадает в одну часть. Длинные строки
+     * могут поглотить соседние границы, тогда частей получается меньше.
+     *
+     * @param path  путь к файлу.
+     * @param count желаемое количество частей.
+     * @return части файла по порядку.
+     */
+    public static List<FileChunk> split(Path path, int count) throws IOException {
+        var result = new ArrayList<FileChunk>();
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var size = channel.size();
+            var buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+            long start = 0;
+            for (int i = 1; i < count && start < size; i++) {
+                var end = findLineStart(channel, Math.max(start, size / count * i), buffer);
+                if (end <= start) continue;
+                result.add(new FileChunk(path, result.size(), start, end));
+                start = end;
+            }
+            if (start < size) result.add(new FileChunk(path, result.size(), start, size));
+        }
+        return result;
+    }
+
+    /**
+     * Метод, находящий ближайшее начало строки не раньше заданной позиции.
+     *
+     * @param channel  канал файла.
+     * @param position позиция.
+     * @param buffer   буфер для чтения.
+     * @return начало строки или размер файла, если после позиции нет перевода строки.
+     */
+    private static long findLineStart(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        if (position == 0) return 0;
+        // позиция уже является началом строки, если перед ней стоит '\n'
+        var scanPosition = position - 1;
+        while (true) {
+            buffer.clear();
+            var read = channel.read(buffer, scanPosition);
+            if (read <= 0) return channel.size();
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') return scanPosition + i + 1;
+            }
+            scanPosition += read;
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * Метод, открывающий поток, читающий только байты части.
+     *
+     * @return входной поток.
+     */
+    public InputStream newInputStream() throws IOException {
+        return new ChunkInputStream(FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    @Override
+    public String toString() {
+        return path.getFileName() + " [" + start + ", " + end + ")";
+    }
+
+    /**
+     * Входной поток, читающий байты части по абсолютным позициям канала.
+     */
+    private class ChunkInputStream extends InputStream {
+        /**
+         * Канал файла.
+         */
+        private final FileChannel channel;
+        /**
+         * Позиция следующего байта.
+         */
+        private long position = start;
+
+        private ChunkInputStream(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            var single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            var remaining = end - position;
+            if (remaining <= 0) return -1;
+            var read = channel.read(ByteBuffer.wrap(bytes, offset, (int) Math.min(length, remaining)), position);
+            if (read > 0) position += read;
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.barievumar.projects.cft.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Снимок входного файла: размер и время изменения, зафиксированные до чтения, и SHA-256 содержимого,
+ * вычисленный во время чтения. Файл может читаться по частям в нескольких потоках, поэтому хэш хранится
+ * по диапазонам байтов [start, end): каждый поток чтения считает хэш своего диапазона.
+ * <p>
+ * Снимок полон, если диапазоны без пропусков покрывают файл от начала до зафиксированного размера.
+ * Экземпляр может использоваться из нескольких потоков.
+ */
+public class FileSnapshot {
+    /**
+     * Максимальное количество диапазонов в сохраненном снимке.
+     */
+    private static final int MAX_SEGMENTS = 1 << 16;
+
+    /**
+     * Путь к файлу.
+     */
+    private final Path path;
+    /**
+     * Размер файла до чтения.
+     */
+    private final long size;
+    /**
+     * Время изменения файла до чтения.
+     */
+    private final long modified;
+    /**
+     * SHA-256 прочитанных диапазонов по началу диапазона: конец диапазона и хэш.
+     */
+    private final Map<Long, Segment> segments = new TreeMap<>();
+
+    /**
+     * Конструктор
+     *
+     * @param path     путь к файлу.
+     * @param size     размер файла.
+     * @param modified время изменения файла.
+     */
+    private FileSnapshot(Path path, long size, long modified) {
+        this.path = path;
+        this.size = size;
+        this.modified = modified;
+    }
+
+    /**
+     * Метод, фиксирующий размер и время изменения файла перед чтением.
+     *
+     * @param path путь к файлу.
+     * @return снимок без хэшей содержимого.
+     */
+    public static FileSnapshot capture(Path path) throws IOException {
+        return new FileSnapshot(path, Files.size(path), Files.getLastModifiedTime(path).toMillis());
+    }
+
+    /**
+     * Метод, читающий сохраненный снимок.
+     *
+     * @param path  путь к файлу.
+     * @param input источник данных, записанных методом write.
+     * @return сохраненный снимок.
+     */
+    public static FileSnapshot read(Path path, DataInput input) throws IOException {
+        var snapshot = new FileSnapshot(path, input.readLong(), input.readLong());
+        var count = input.readInt();
+        if (count < 0 || count > MAX_SEGMENTS) throw new IOException("Wrong number of hashed segments: " + count);
+        for (int i = 0; i < count; i++) {
+            var start = input.readLong();
+            var end = input.readLong();
+            var hash = new byte[input.readUnsignedByte()];
+            input.readFully(hash);
+            snapshot.segments.put(start, new Segment(end, hash));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Метод, сохраняющий снимок.
+     *
+     * @param output получатель данных.
+     */
+    public synchronized void write(DataOutput output) throws IOException {
+        output.writeLong(size);
+        output.writeLong(modified);
+        output.writeInt(segments.size());
+        for (Map.Entry<Long, Segment> entry : segments.entrySet()) {
+            output.writeLong(entry.getKey());
+            output.writeLong(entry.getValue().end);
+            output.writeByte(entry.getValue().hash.length);
+            output.write(entry.getValue().hash);
+        }
+    }
+
+    /**
+     * Метод, оборачивающий поток чтения диапазона файла, чтобы хэш диапазона считался во время чтения.
+     * Хэш добавляется в снимок при закрытии потока, если поток дочитан до конца.
+     *
+     * @param input поток, читающий файл с позиции start.
+     * @param start позиция первого байта потока в файле.
+     * @return поток, считающий хэш прочитанных байтов.
+     */
+    public InputStream hashing(InputStream input, long start) {
+        return new HashingInputStream(input, start);
+    }
+
+    /**
+     * Метод, проверяющий, что хэши прочитанных диапазонов покрывают файл целиком.
+     *
+     * @return true, если снимок полон.
+     */
+    public synchronized boolean isComplete() {
+        long position = 0;
+        for (Map.Entry<Long, Segment> entry : segments.entrySet()) {
+            if (entry.getKey() != position) return false;
+            position = entry.getValue().end;
+        }
+        return position == size;
+    }
+
+    /**
+     * Метод, проверяющий, что размер и время изменения файла не изменились с момента снимка.
+     *
+     * @return true, если файл, по-видимому, не изменялся.
+     */
+    public boolean isUnchanged() throws IOException {
+        return Files.size(path) == size && Files.getLastModifiedTime(path).toMillis() == modified;
+    }
+
+    /**
+     * Метод, проверяющий, что файл совпадает с сохраненным снимком: сначала сравниваются размер и время
+     * изменения, и только если они совпали, файл читается и сравниваются хэши диапазонов.
+     *
+     * @return true, если содержимое файла не изменилось.
+     */
+    public synchronized boolean matchesFile() throws IOException {
+        if (!isComplete() || !isUnchanged()) return false;
+        var buffer = ByteBuffer.allocate(1 << 16);
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (Map.Entry<Long, Segment> entry : segments.entrySet()) {
+                var digest = createDigest();
+                var position = (long) entry.getKey();
+                var end = entry.getValue().end;
+                while (position < end) {
+                    buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                    var read = channel.read(buffer, position);
+                    if (read < 0) return false;
+                    digest.update(buffer.flip());
+                    position += read;
+                }
+                if (!Arrays.equals(digest.digest(), entry.getValue().hash)) return false;
+            }
+        }
+        return true;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Метод, добавляющий хэш прочитанного диапазона.
+     *
+     * @param start начало диапазона.
+     * @param end   конец диапазона, не включительно.
+     * @param hash  SHA-256 диапазона.
+     */
+    private synchronized void addSegment(long start, long end, byte[] hash) {
+        segments.put(start, new Segment(end, hash));
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 обязателен для всех реализаций Java
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Хэш диапазона файла.
+     */
+    private static class Segment {
+        /**
+         * Конец диапазона, не включительно.
+         */
+        private final long end;
+        /**
+         * SHA-256 диапазона.
+         */
+        private final byte[] hash;
+
+        private Segment(long end, byte[] hash) {
+            this.end = end;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Входной поток, считающий хэш и количество прочитанных байтов диапазона.
+     */
+    private class HashingInputStream extends FilterInputStream {
+        /**
+         * Хэш прочитанных байтов.
+         */
+        private final MessageDigest digest = createDigest();
+        /**
+         * Позиция следующего байта в файле.
+         */
+        private long position;
+        /**
+         * Начало диапазона.
+         */
+        private final long start;
+        /**
+         * true, если поток дочитан до конца.
+         */
+        private boolean finished;
+
+        private HashingInputStream(InputStream input, long start) {
+            super(input);
+            this.start = start;
+            this.position = start;
+        }
+
+        @Override
+        public int read() throws IOException {
+            var b = in.read();
+            if (b < 0) {
+                finished = true;
+            } else {
+                digest.update((byte) b);
+                position++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            var read = in.read(bytes, offset, length);
+            if (read < 0) {
+                finished = true;
+            } else {
+                digest.update(bytes, offset, read);
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            // пропущенные байты не попали бы в хэш
+            throw new IOException("Skipping is not supported while hashing " + path);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            if (finished) addSegment(start, position, digest.digest());
+            finished = false;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.barievumar.projects.cft.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Класс, читающий строки файла в виде байтов, без создания объектов String.
+ * Буфер строки переиспользуется, поэтому данные строки действительны только до следующего вызова nextLine().
+ */
+public class LineReader implements Closeable {
+    /**
+     * Размер буфера чтения по умолчанию.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Входной поток.
+     */
+    private final InputStream input;
+
+    /**
+     * Буфер чтения.
+     */
+    private final byte[] readBuffer;
+    /**
+     * Количество байтов в буфере чтения.
+     */
+    private int readLimit;
+    /**
+     * Позиция в буфере чтения.
+     */
+    private int readPosition;
+
+    /**
+     * Буфер текущей строки.
+     */
+    private byte[] line = new byte[256];
+    /**
+     * Длина текущей строки.
+     */
+    private int lineLength;
+
+    /**
+     * Конструктор
+     *
+     * @param input      входной поток.
+     * @param bufferSize размер буфера чтения.
+     */
+    public LineReader(InputStream input, int bufferSize) {
+        this.input = input;
+        this.readBuffer = new byte[bufferSize];
+    }
+
+    /**
+     * Метод, читающий следующую строку. Символы перевода строки (\n, \r\n) в строку не включаются.
+     *
+     * @return true, если строка прочитана, false, если достигнут конец файла.
+     */
+    public boolean nextLine() throws IOException {
+        lineLength = 0;
+        var hasData = false;
+        while (true) {
+            if (readPosition == readLimit) {
+                readLimit = input.read(readBuffer);
+                readPosition = 0;
+                if (readLimit <= 0) {
+                    readLimit = 0;
+                    return hasData;
+                }
+            }
+            hasData = true;
+
+            var start = readPosition;
+            while (readPosition < readLimit && readBuffer[readPosition] != '\n') readPosition++;
+            append(start, readPosition - start);
+
+            if (readPosition < readLimit) {
+                // пропускаем '\n'
+                readPosition++;
+                if (lineLength > 0 && line[lineLength - 1] == '\r') lineLength--;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Метод, возвращающий буфер текущей строки.
+     *
+     * @return буфер текущей строки.
+     */
+    public byte[] getLine() {
+        return line;
+    }
+
+    /**
+     * Метод, возвращающий длину текущей строки.
+     *
+     * @return длина текущей строки.
+     */
+    public int getLineLength() {
+        return lineLength;
+    }
+
+    /**
+     * Метод, добавляющий байты из буфера чтения в буфер строки.
+     *
+     * @param start  позиция в буфере чтения.
+     * @param length количество байтов.
+     */
+    private void append(int start, int length) {
+        if (lineLength + length > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+        }
+        System.arraycopy(readBuffer, start, line, lineLength, length);
+        lineLength += length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
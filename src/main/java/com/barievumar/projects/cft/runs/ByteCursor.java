@@ -0,0 +1,41 @@
+package com.barievumar.projects.cft.runs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Курсор, текущее значение которого доступно в виде байтов. Такие курсоры сравниваются
+ * побайтово, без создания объектов.
+ *
+ * @see ByteRecordFormat#compareHeads
+ */
+public interface ByteCursor extends RunCursor {
+    /**
+     * Метод, возвращающий буфер, содержащий текущее значение.
+     *
+     * @return буфер.
+     */
+    ByteBuffer headBuffer();
+
+    /**
+     * Метод, возвращающий смещение текущего значения в буфере.
+     *
+     * @return смещение.
+     */
+    int headOffset();
+
+    /**
+     * Метод, возвращающий длину текущего значения в байтах.
+     *
+     * @return длина.
+     */
+    int headLength();
+
+    @Override
+    default void writeHeadRecord(RunWriter writer, long count) throws IOException {
+        var length = headLength();
+        var scratch = writer.scratch(length);
+        headBuffer().get(headOffset(), scratch, 0, length);
+        writer.writeRecord(scratch, 0, length, count);
+    }
+}
@@ -0,0 +1,91 @@
+package com.barievumar.projects.cft.runs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Курсор по серии во временном файле, записи которой сравниваются побайтово.
+ */
+public class ByteFileCursor implements ByteCursor {
+    /**
+     * Читатель серии.
+     */
+    private final RunReader reader;
+    /**
+     * Формат записей серии.
+     */
+    private final ByteRecordFormat format;
+    /**
+     * Обертка над буфером записи читателя.
+     */
+    private ByteBuffer head;
+    /**
+     * true, если текущая запись есть.
+     */
+    private boolean hasHead;
+    /**
+     * Буфер для записи значения в поток.
+     */
+    private byte[] writeBuffer = new byte[256];
+
+    /**
+     * Конструктор
+     *
+     * @param reader читатель серии.
+     * @param format формат записей серии.
+     */
+    public ByteFileCursor(RunReader reader, ByteRecordFormat format) throws IOException {
+        this.reader = reader;
+        this.format = format;
+        advance();
+    }
+
+    @Override
+    public boolean hasHead() {
+        return hasHead;
+    }
+
+    @Override
+    public void advance() throws IOException {
+        hasHead = reader.next();
+        if (head == null || head.array() != reader.getRecord()) head = ByteBuffer.wrap(reader.getRecord());
+    }
+
+    @Override
+    public void writeHead(OutputStream output) throws IOException {
+        var length = reader.getRecordLength();
+        if (writeBuffer.length < length) writeBuffer = new byte[Math.max(length, writeBuffer.length * 2)];
+        format.writeText(head, 0, length, output, writeBuffer);
+    }
+
+    @Override
+    public long headCount() {
+        return reader.getRecordCount();
+    }
+
+    @Override
+    public void writeHeadRecord(RunWriter writer, long count) throws IOException {
+        writer.writeRecord(reader.getRecord(), 0, reader.getRecordLength(), count);
+    }
+
+    @Override
+    public ByteBuffer headBuffer() {
+        return head;
+    }
+
+    @Override
+    public int headOffset() {
+        return 0;
+    }
+
+    @Override
+    public int headLength() {
+        return reader.getRecordLength();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,70 @@
+package com.barievumar.projects.cft.runs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Интерфейс, объединяющий форматы записей, которые сравниваются побайтово, без создания объектов.
+ * Для каждой записи формат вычисляет нормализованный префикс ключа типа long: если префиксы двух записей
+ * различаются, их порядок совпадает с порядком записей, и сравнивать сами записи не нужно.
+ *
+ * @see ByteRun
+ */
+public interface ByteRecordFormat {
+    /**
+     * Метод, возвращающий нормализованный префикс ключа записи.
+     * Для любых записей a и b из prefix(a) &lt; prefix(b) следует compare(a, b) &lt; 0.
+     *
+     * @param buffer буфер, содержащий запись.
+     * @param offset смещение записи в буфере.
+     * @param length длина записи.
+     * @return префикс ключа.
+     */
+    long prefix(ByteBuffer buffer, int offset, int length);
+
+    /**
+     * Метод, проверяющий, является ли ключом вся запись. Тогда равные записи неотличимы
+     * и могут храниться одной записью с количеством повторений.
+     *
+     * @return true, если равные записи совпадают побайтово.
+     */
+    boolean isKeyWholeRecord();
+
+    /**
+     * Метод, сравнивающий две записи по возрастанию.
+     *
+     * @param first        буфер первой записи.
+     * @param firstOffset  смещение первой записи.
+     * @param firstLength  длина первой записи.
+     * @param second       буфер второй записи.
+     * @param secondOffset смещение второй записи.
+     * @param secondLength длина второй записи.
+     * @return результат сравнения.
+     */
+    int compare(ByteBuffer first, int firstOffset, int firstLength,
+                ByteBuffer second, int secondOffset, int secondLength);
+
+    /**
+     * Метод, записывающий запись в текстовом виде, без перевода строки.
+     *
+     * @param buffer буфер, содержащий запись.
+     * @param offset смещение записи в буфере.
+     * @param length длина записи.
+     * @param output выходной поток.
+     * @param scratch вспомогательный массив не меньше длины записи.
+     */
+    void writeText(ByteBuffer buffer, int offset, int length, OutputStream output, byte[] scratch) throws IOException;
+
+    /**
+     * Метод, сравнивающий текущие значения двух курсоров по возрастанию.
+     *
+     * @param first  первый курсор.
+     * @param second второй курсор.
+     * @return результат сравнения.
+     */
+    default int compareHeads(ByteCursor first, ByteCursor second) {
+        return compare(first.headBuffer(), first.headOffset(), first.headLength(),
+                second.headBuffer(), second.headOffset(), second.headLength());
+    }
+}
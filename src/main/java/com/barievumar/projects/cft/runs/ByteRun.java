@@ -0,0 +1,348 @@
+package com.barievumar.projects.cft.runs;
+
+import com.barievumar.projects.cft.enums.SortDirection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Серия записей, хранящая байты всех записей подряд в одном ByteBuffer. Если буфер direct, данные
+ * находятся вне кучи: для каждой записи в куче хранятся только смещение, длина и префикс ключа,
+ * поэтому накладные расходы не зависят от количества объектов, а сборщик мусора не сканирует сами данные.
+ * <p>
+ * Порядок записей задает ByteRecordFormat. Префикс ключа каждой записи вычисляется один раз при добавлении
+ * и хранится в массиве long рядом с индексом, поэтому большинство сравнений при сортировке - это сравнение
+ * двух long, без обращения к самим записям. Записи сравниваются на месте, только если префиксы совпали.
+ * Объекты String создаются только методом getString().
+ *
+ * @see Utf8RecordFormat
+ * @see DelimitedRecordFormat
+ */
+public class ByteRun implements RunBuffer {
+    /**
+     * Начальный размер буфера данных.
+     */
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    /**
+     * Формат записей, задающий их порядок.
+     */
+    private final ByteRecordFormat format;
+    /**
+     * true, если данные хранятся вне кучи.
+     */
+    private final boolean direct;
+
+    /**
+     * Байты всех значений серии.
+     */
+    private ByteBuffer data;
+    /**
+     * Количество занятых байтов в буфере данных.
+     */
+    private int dataSize;
+
+    /**
+     * Смещения значений в буфере данных.
+     */
+    private int[] offsets;
+    /**
+     * Длины значений в байтах.
+     */
+    private int[] lengths;
+    /**
+     * Нормализованные префиксы ключей значений.
+     */
+    private long[] prefixes;
+    /**
+     * Количество значений в серии.
+     */
+    private int size;
+
+    /**
+     * Индексы значений в отсортированном порядке.
+     */
+    private int[] order;
+
+    /**
+     * Конструктор
+     *
+     * @param format формат записей, задающий их порядок.
+     * @param direct true, если данные нужно хранить вне кучи.
+     */
+    public ByteRun(ByteRecordFormat format, boolean direct) {
+        this.format = format;
+        this.direct = direct;
+        data = allocate(INITIAL_CAPACITY);
+        offsets = new int[1024];
+        lengths = new int[1024];
+        prefixes = new long[1024];
+    }
+
+    /**
+     * Метод, добавляющий значение в серию.
+     *
+     * @param bytes  массив, содержащий значение в UTF-8.
+     * @param offset смещение значения в массиве.
+     * @param length длина значения в байтах.
+     */
+    @Override
+    public void add(byte[] bytes, int offset, int length) {
+        ensureDataCapacity(length);
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, size * 2);
+            lengths = Arrays.copyOf(lengths, size * 2);
+            prefixes = Arrays.copyOf(prefixes, size * 2);
+        }
+
+        data.put(dataSize, bytes, offset, length);
+        offsets[size] = dataSize;
+        lengths[size] = length;
+        prefixes[size] = format.prefix(data, dataSize, length);
+        dataSize += length;
+        size++;
+        order = null;
+    }
+
+    /**
+     * Метод, возвращающий количество значений в серии.
+     *
+     * @return количество значений.
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Метод, возвращающий объем памяти, занимаемой серией.
+     *
+     * @return объем памяти в байтах, вне кучи и в куче.
+     */
+    @Override
+    public long byteSize() {
+        return data.capacity() + (long) offsets.length * (Integer.BYTES * 3 + Long.BYTES);
+    }
+
+    /**
+     * Метод, выполняющий сортировку слиянием индексов значений серии.
+     * Если значения уже отсортированы, сортировка не выполняется.
+     *
+     * @param sortDirection направление сортировки.
+     */
+    @Override
+    public void sort(SortDirection sortDirection) {
+        order = new int[size];
+        for (int i = 0; i < size; i++) order[i] = i;
+        if (isSorted(sortDirection)) return;
+
+        var buffer = new int[size];
+        for (int width = 1; width < size; width *= 2) {
+            for (int start = 0; start < size - width; start += width * 2) {
+                mergeIndexes(start, start + width, Math.min(start + width * 2, size), buffer, sortDirection);
+            }
+        }
+    }
+
+    /**
+     * Метод, возвращающий значение из отсортированной серии в виде строки.
+     *
+     * @param index номер значения в отсортированном порядке.
+     * @return значение в текстовом виде.
+     */
+    public String getString(int index) {
+        var valueIndex = order == null ? index : order[index];
+        var output = new ByteArrayOutputStream(lengths[valueIndex]);
+        try {
+            format.writeText(data, offsets[valueIndex], lengths[valueIndex], output, new byte[lengths[valueIndex]]);
+        } catch (IOException e) {
+            // ByteArrayOutputStream не выбрасывает IOException
+            throw new UncheckedIOException(e);
+        }
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Cursor cursor() {
+        if (order == null) throw new IllegalStateException("Run must be sorted before reading");
+        return new Cursor();
+    }
+
+    @Override
+    public void writeTo(RunWriter writer) throws IOException {
+        if (order == null) throw new IllegalStateException("Run must be sorted before writing");
+        for (int i = 0; i < size; ) {
+            var index = order[i];
+            var count = countEqual(i);
+            var record = writer.scratch(lengths[index]);
+            data.get(offsets[index], record, 0, lengths[index]);
+            writer.writeRecord(record, 0, lengths[index], count);
+            i += count;
+        }
+    }
+
+    /**
+     * Метод, считающий равные записи подряд, начиная с заданной, в отсортированном порядке.
+     * Если ключ - не вся запись, равные по ключу записи различаются, и каждая считается отдельно.
+     *
+     * @param position номер записи в отсортированном порядке.
+     * @return количество равных записей, не меньше 1.
+     */
+    private int countEqual(int position) {
+        if (!format.isKeyWholeRecord()) return 1;
+        var end = position + 1;
+        while (end < size && compareIndexes(order[position], order[end], SortDirection.ASCENDING) == 0) end++;
+        return end - position;
+    }
+
+    /**
+     * Метод, проверяющий, отсортированы ли значения в порядке добавления.
+     *
+     * @param sortDirection направление сортировки.
+     * @return true, если значения отсортированы.
+     */
+    private boolean isSorted(SortDirection sortDirection) {
+        for (int i = 0; i < size - 1; i++) {
+            if (compareIndexes(i, i + 1, sortDirection) > 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Метод, выполняющий слияние двух соседних отсортированных участков массива индексов.
+     *
+     * @param start         начало первого участка.
+     * @param middle        начало второго участка.
+     * @param end           конец второго участка.
+     * @param buffer        вспомогательный массив.
+     * @param sortDirection направление сортировки.
+     */
+    private void mergeIndexes(int start, int middle, int end, int[] buffer, SortDirection sortDirection) {
+        if (compareIndexes(order[middle - 1], order[middle], sortDirection) <= 0) return;
+
+        var firstIndex = start;
+        var secondIndex = middle;
+        var resultIndex = start;
+        while (firstIndex < middle && secondIndex < end) {
+            if (compareIndexes(order[firstIndex], order[secondIndex], sortDirection) <= 0) {
+                buffer[resultIndex++] = order[firstIndex++];
+            } else {
+                buffer[resultIndex++] = order[secondIndex++];
+            }
+        }
+        while (firstIndex < middle) buffer[resultIndex++] = order[firstIndex++];
+        while (secondIndex < end) buffer[resultIndex++] = order[secondIndex++];
+
+        System.arraycopy(buffer, start, order, start, end - start);
+    }
+
+    /**
+     * Метод, сравнивающий два значения серии с учетом направления сортировки.
+     *
+     * @param first         индекс первого значения.
+     * @param second        индекс второго значения.
+     * @param sortDirection направление сортировки.
+     * @return результат сравнения.
+     */
+    private int compareIndexes(int first, int second, SortDirection sortDirection) {
+        var result = Long.compare(prefixes[first], prefixes[second]);
+        if (result == 0) {
+            result = format.compare(data, offsets[first], lengths[first], data, offsets[second], lengths[second]);
+        }
+        return sortDirection == SortDirection.DESCENDING ? -result : result;
+    }
+
+    /**
+     * Метод, увеличивающий буфер данных так, чтобы в нем поместилось еще length байтов.
+     *
+     * @param length количество байтов.
+     */
+    private void ensureDataCapacity(int length) {
+        if (dataSize + length <= data.capacity()) return;
+
+        var newCapacity = (int) Math.min(Integer.MAX_VALUE - 8,
+                Math.max((long) data.capacity() * 2, (long) dataSize + length));
+        if (newCapacity < dataSize + length) {
+            throw new IllegalStateException("Run is too large for a single buffer: " + dataSize + " bytes");
+        }
+        var newData = allocate(newCapacity);
+        newData.put(0, data, 0, dataSize);
+        data = newData;
+    }
+
+    /**
+     * Метод, создающий буфер данных, в куче или вне ее.
+     *
+     * @param capacity размер буфера.
+     * @return буфер.
+     */
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Курсор по отсортированной серии. Если ключ - вся запись, равные записи подряд возвращаются одной записью
+     * с количеством.
+     */
+    public class Cursor implements ByteCursor {
+        /**
+         * Номер текущего значения в отсортированном порядке.
+         */
+        private int position;
+        /**
+         * Количество равных записей, начиная с текущей, 0 если еще не посчитано.
+         */
+        private int headCount;
+        /**
+         * Буфер для записи значения в поток.
+         */
+        private byte[] writeBuffer = new byte[256];
+
+        private Cursor() {
+        }
+
+        @Override
+        public boolean hasHead() {
+            return position < size;
+        }
+
+        @Override
+        public long headCount() {
+            if (headCount == 0) headCount = countEqual(position);
+            return headCount;
+        }
+
+        @Override
+        public void advance() {
+            position += (int) headCount();
+            headCount = 0;
+        }
+
+        @Override
+        public void writeHead(OutputStream output) throws IOException {
+            var length = headLength();
+            if (writeBuffer.length < length) writeBuffer = new byte[Math.max(length, writeBuffer.length * 2)];
+            format.writeText(data, headOffset(), length, output, writeBuffer);
+        }
+
+        @Override
+        public ByteBuffer headBuffer() {
+            return data;
+        }
+
+        @Override
+        public int headOffset() {
+            return offsets[order[position]];
+        }
+
+        @Override
+        public int headLength() {
+            return lengths[order[position]];
+        }
+    }
+}
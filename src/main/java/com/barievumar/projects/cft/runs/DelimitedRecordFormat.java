@@ -0,0 +1,156 @@
+package com.barievumar.projects.cft.runs;
+
+import com.barievumar.projects.cft.enums.DataType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Формат записей для строк CSV/TSV, сортируемых по одному столбцу-ключу. Строка хранится целиком,
+ * перед ней записывается заголовок: нормализованный префикс ключа (8 байтов), смещение и длина ключа в строке
+ * (по 4 байта). Для ключей INTEGER префикс - само значение ключа, поэтому сравнение записей сводится
+ * к сравнению двух long. Для ключей STRING префикс - первые 8 байтов ключа, и сам ключ сравнивается
+ * только при совпадении префиксов.
+ */
+public class DelimitedRecordFormat implements ByteRecordFormat {
+    /**
+     * Размер заголовка записи.
+     */
+    public static final int HEADER_SIZE = Long.BYTES + Integer.BYTES * 2;
+
+    /**
+     * Тип данных ключа.
+     */
+    private final DataType keyType;
+    /**
+     * Номер столбца-ключа, начиная с 1.
+     */
+    private final int keyColumn;
+    /**
+     * Разделитель столбцов.
+     */
+    private final byte delimiter;
+
+    /**
+     * Конструктор
+     *
+     * @param keyType   тип данных ключа.
+     * @param keyColumn номер столбца-ключа, начиная с 1.
+     * @param delimiter разделитель столбцов.
+     */
+    public DelimitedRecordFormat(DataType keyType, int keyColumn, byte delimiter) {
+        this.keyType = keyType;
+        this.keyColumn = keyColumn;
+        this.delimiter = delimiter;
+    }
+
+    /**
+     * Метод, создающий запись из строки файла.
+     *
+     * @param line   массив, содержащий строку.
+     * @param length длина строки.
+     * @param target массив для записи, не меньше HEADER_SIZE + length.
+     * @return длина записи.
+     * @throws IllegalArgumentException если в строке нет столбца-ключа.
+     * @throws NumberFormatException    если ключ не соответствует типу данных.
+     */
+    public int encode(byte[] line, int length, byte[] target) {
+        // ищем столбец-ключ
+        var keyStart = 0;
+        for (int column = 1; column < keyColumn; column++) {
+            while (keyStart < length && line[keyStart] != delimiter) keyStart++;
+            if (keyStart == length) throw new IllegalArgumentException("Line has no column " + keyColumn);
+            keyStart++;
+        }
+        var keyEnd = keyStart;
+        while (keyEnd < length && line[keyEnd] != delimiter) keyEnd++;
+        while (keyStart < keyEnd && (line[keyStart] & 0xFF) <= ' ') keyStart++;
+        while (keyEnd > keyStart && (line[keyEnd - 1] & 0xFF) <= ' ') keyEnd--;
+
+        var prefix = keyType == DataType.INTEGER
+                ? parseInt(line, keyStart, keyEnd)
+                : bytesPrefix(line, keyStart, keyEnd - keyStart);
+
+        var header = ByteBuffer.wrap(target);
+        header.putLong(0, prefix);
+        header.putInt(Long.BYTES, keyStart);
+        header.putInt(Long.BYTES + Integer.BYTES, keyEnd - keyStart);
+        System.arraycopy(line, 0, target, HEADER_SIZE, length);
+        return HEADER_SIZE + length;
+    }
+
+    @Override
+    public long prefix(ByteBuffer buffer, int offset, int length) {
+        return buffer.getLong(offset);
+    }
+
+    @Override
+    public boolean isKeyWholeRecord() {
+        return false;
+    }
+
+    @Override
+    public int compare(ByteBuffer first, int firstOffset, int firstLength,
+                       ByteBuffer second, int secondOffset, int secondLength) {
+        var result = Long.compare(first.getLong(firstOffset), second.getLong(secondOffset));
+        if (result != 0 || keyType == DataType.INTEGER) return result;
+
+        return Utf8RecordFormat.compareBytes(
+                first, firstOffset + HEADER_SIZE + first.getInt(firstOffset + Long.BYTES),
+                first.getInt(firstOffset + Long.BYTES + Integer.BYTES),
+                second, secondOffset + HEADER_SIZE + second.getInt(secondOffset + Long.BYTES),
+                second.getInt(secondOffset + Long.BYTES + Integer.BYTES));
+    }
+
+    @Override
+    public void writeText(ByteBuffer buffer, int offset, int length, OutputStream output, byte[] scratch)
+            throws IOException {
+        buffer.get(offset + HEADER_SIZE, scratch, 0, length - HEADER_SIZE);
+        output.write(scratch, 0, length - HEADER_SIZE);
+    }
+
+    /**
+     * Метод, выполняющий парсинг целого числа из байтов, по тем же правилам, что и Integer.parseInt.
+     *
+     * @param bytes массив, содержащий число.
+     * @param start начало числа.
+     * @param end   конец числа.
+     * @return число.
+     * @throws NumberFormatException если байты не являются целым числом.
+     */
+    private static int parseInt(byte[] bytes, int start, int end) {
+        if (start == end) throw new NumberFormatException("Empty key");
+        var negative = bytes[start] == '-';
+        var index = bytes[start] == '-' || bytes[start] == '+' ? start + 1 : start;
+        if (index == end) throw new NumberFormatException("Key has no digits");
+
+        // накапливаем отрицательное значение, чтобы поместился Integer.MIN_VALUE
+        long result = 0;
+        for (; index < end; index++) {
+            var digit = bytes[index] - '0';
+            if (digit < 0 || digit > 9) throw new NumberFormatException("Key is not an integer");
+            result = result * 10 - digit;
+            if (result < Integer.MIN_VALUE) throw new NumberFormatException("Key is out of integer range");
+        }
+        if (!negative && result == Integer.MIN_VALUE) throw new NumberFormatException("Key is out of integer range");
+        return (int) (negative ? result : -result);
+    }
+
+    /**
+     * Метод, возвращающий нормализованный префикс байтов ключа.
+     *
+     * @param bytes  массив, содержащий ключ.
+     * @param offset смещение ключа.
+     * @param length длина ключа.
+     * @return префикс.
+     * @see Utf8RecordFormat#bytesPrefix
+     */
+    private static long bytesPrefix(byte[] bytes, int offset, int length) {
+        long result = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            result = result << 8 | (i < length ? bytes[offset + i] & 0xFF : 0);
+        }
+        return result ^ Long.MIN_VALUE;
+    }
+}
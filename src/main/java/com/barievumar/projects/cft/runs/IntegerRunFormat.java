@@ -0,0 +1,27 @@
+package com.barievumar.projects.cft.runs;
+
+import java.io.IOException;
+
+/**
+ * Формат записей серии для Integer: 4 байта, старший байт первым.
+ */
+public class IntegerRunFormat implements RunFormat<Integer> {
+    @Override
+    public void write(Integer value, long count, RunWriter writer) throws IOException {
+        var record = writer.scratch(Integer.BYTES);
+        int intValue = value;
+        record[0] = (byte) (intValue >>> 24);
+        record[1] = (byte) (intValue >>> 16);
+        record[2] = (byte) (intValue >>> 8);
+        record[3] = (byte) intValue;
+        writer.writeRecord(record, 0, Integer.BYTES, count);
+    }
+
+    @Override
+    public Integer decode(byte[] record, int offset, int length) {
+        return (record[offset] & 0xFF) << 24
+                | (record[offset + 1] & 0xFF) << 16
+                | (record[offset + 2] & 0xFF) << 8
+                | (record[offset + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,238 @@
+package com.barievumar.projects.cft.runs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * План многопроходного слияния серий с ограниченным количеством одновременно сливаемых серий (fan-in).
+ * Серии нумеруются с 0, результат каждого шага получает следующий свободный номер. Шаги строятся по алгоритму
+ * Хаффмана: на каждом шаге сливаются самые маленькие серии, поэтому большие серии переписываются реже всего
+ * и суммарный объем промежуточных записей минимален. Последний шаг записывает результат в выходной файл.
+ * <p>
+ * Если порядок серий важен, например для записей с равными ключами, строится план, в котором каждый шаг сливает
+ * соседние серии: серии по порядку номеров, в котором результат шага занимает место слитых серий.
+ * Такой план сохраняет порядок записей, но может переписывать больше байтов.
+ */
+public class MergePlan {
+    /**
+     * Количество исходных серий.
+     */
+    private final int runCount;
+    /**
+     * Максимальное количество серий, сливаемых за один шаг.
+     */
+    private final int maxFanIn;
+    /**
+     * Шаги слияния в порядке выполнения.
+     */
+    private final List<Step> steps;
+
+    private MergePlan(int runCount, int maxFanIn, List<Step> steps) {
+        this.runCount = runCount;
+        this.maxFanIn = maxFanIn;
+        this.steps = steps;
+    }
+
+    /**
+     * Метод, строящий план слияния серий заданных размеров.
+     *
+     * @param sizes    размеры исходных серий в байтах.
+     * @param maxFanIn максимальное количество серий, сливаемых за один шаг, не меньше 2.
+     * @return план слияния.
+     */
+    public static MergePlan create(long[] sizes, int maxFanIn) {
+        return create(sizes, maxFanIn, false);
+    }
+
+    /**
+     * Метод, строящий план слияния серий заданных размеров.
+     *
+     * @param sizes    размеры исходных серий в байтах.
+     * @param maxFanIn максимальное количество серий, сливаемых за один шаг, не меньше 2.
+     * @param stable   true, если каждый шаг должен сливать соседние серии, по порядку.
+     * @return план слияния.
+     */
+    public static MergePlan create(long[] sizes, int maxFanIn, boolean stable) {
+        if (maxFanIn < 2) throw new IllegalArgumentException("Fan-in must be at least 2, got " + maxFanIn);
+        if (stable) return createStable(sizes, maxFanIn);
+
+        var queue = new PriorityQueue<Step>((first, second) -> first.bytes != second.bytes
+                ? Long.compare(first.bytes, second.bytes)
+                : Integer.compare(first.output, second.output));
+        for (int i = 0; i < sizes.length; i++) {
+            queue.add(new Step(new int[0], i, sizes[i], 0));
+        }
+
+        var steps = new ArrayList<Step>();
+        var nextIndex = sizes.length;
+        // первый шаг сливает столько серий, чтобы все следующие шаги сливали ровно maxFanIn серий
+        var fanIn = sizes.length <= maxFanIn ? sizes.length : (sizes.length - 2) % (maxFanIn - 1) + 2;
+        do {
+            var inputs = new int[fanIn];
+            long bytes = 0;
+            var pass = 0;
+            for (int i = 0; i < fanIn; i++) {
+                var run = queue.remove();
+                inputs[i] = run.output;
+                bytes += run.bytes;
+                pass = Math.max(pass, run.pass);
+            }
+            var step = new Step(inputs, nextIndex++, bytes, pass + 1);
+            steps.add(step);
+            queue.add(step);
+            fanIn = Math.min(maxFanIn, queue.size());
+        } while (queue.size() > 1);
+
+        return new MergePlan(sizes.length, maxFanIn, Collections.unmodifiableList(steps));
+    }
+
+    /**
+     * Метод, строящий план, каждый шаг которого сливает соседние серии: из всех окон подряд идущих серий
+     * выбирается окно с наименьшим суммарным размером, и результат шага встает на его место.
+     *
+     * @param sizes    размеры исходных серий в байтах.
+     * @param maxFanIn максимальное количество серий, сливаемых за один шаг.
+     * @return план слияния.
+     */
+    private static MergePlan createStable(long[] sizes, int maxFanIn) {
+        var runs = new ArrayList<Step>();
+        for (int i = 0; i < sizes.length; i++) {
+            runs.add(new Step(new int[0], i, sizes[i], 0));
+        }
+
+        var steps = new ArrayList<Step>();
+        var nextIndex = sizes.length;
+        var fanIn = sizes.length <= maxFanIn ? sizes.length : (sizes.length - 2) % (maxFanIn - 1) + 2;
+        do {
+            var start = 0;
+            long minBytes = Long.MAX_VALUE;
+            for (int i = 0; i + fanIn <= runs.size(); i++) {
+                long bytes = 0;
+                for (int j = i; j < i + fanIn; j++) {
+                    bytes += runs.get(j).bytes;
+                }
+                if (bytes < minBytes) {
+                    minBytes = bytes;
+                    start = i;
+                }
+            }
+
+            var window = runs.subList(start, start + fanIn);
+            var inputs = new int[fanIn];
+            var pass = 0;
+            for (int i = 0; i < fanIn; i++) {
+                inputs[i] = window.get(i).output;
+                pass = Math.max(pass, window.get(i).pass);
+            }
+            var step = new Step(inputs, nextIndex++, minBytes, pass + 1);
+            steps.add(step);
+            window.clear();
+            runs.add(start, step);
+            fanIn = Math.min(maxFanIn, runs.size());
+        } while (runs.size() > 1);
+
+        return new MergePlan(sizes.length, maxFanIn, Collections.unmodifiableList(steps));
+    }
+
+    public int getRunCount() {
+        return runCount;
+    }
+
+    public int getMaxFanIn() {
+        return maxFanIn;
+    }
+
+    public List<Step> getSteps() {
+        return steps;
+    }
+
+    /**
+     * Метод, возвращающий количество проходов: наибольшее количество раз, которое значение переписывается.
+     *
+     * @return количество проходов.
+     */
+    public int getPasses() {
+        return steps.get(steps.size() - 1).pass;
+    }
+
+    /**
+     * Метод, возвращающий суммарный объем промежуточных серий, то есть байтов, переписываемых
+     * помимо итоговой записи в выходной файл.
+     *
+     * @return объем в байтах.
+     */
+    public long getRewrittenBytes() {
+        long result = 0;
+        for (int i = 0; i < steps.size() - 1; i++) {
+            result += steps.get(i).bytes;
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        var builder = new StringBuilder("Merge plan: ").append(runCount).append(" runs, fan-in ").append(maxFanIn)
+                .append(", ").append(steps.size()).append(" steps, ").append(getPasses()).append(" passes, ")
+                .append(getRewrittenBytes()).append(" bytes rewritten");
+        for (Step step : steps) {
+            builder.append(System.lineSeparator()).append("  ").append(step);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Шаг слияния: серии inputs сливаются в серию output.
+     */
+    public static class Step {
+        /**
+         * Номера сливаемых серий.
+         */
+        private final int[] inputs;
+        /**
+         * Номер серии-результата.
+         */
+        private final int output;
+        /**
+         * Размер серии-результата в байтах.
+         */
+        private final long bytes;
+        /**
+         * Номер прохода, для исходных серий 0.
+         */
+        private final int pass;
+
+        private Step(int[] inputs, int output, long bytes, int pass) {
+            this.inputs = inputs;
+            this.output = output;
+            this.bytes = bytes;
+            this.pass = pass;
+        }
+
+        public int[] getInputs() {
+            return inputs.clone();
+        }
+
+        public int getOutput() {
+            return output;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public int getPass() {
+            return pass;
+        }
+
+        @Override
+        public String toString() {
+            var builder = new StringBuilder("pass ").append(pass).append(": runs");
+            for (int input : inputs) {
+                builder.append(' ').append(input);
+            }
+            return builder.append(" -> run ").append(output).append(" (").append(bytes).append(" bytes)").toString();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.barievumar.projects.cft.runs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Курсор, текущее значение которого доступно в виде объекта.
+ *
+ * @param <T> тип значений.
+ */
+public interface ObjectCursor<T> extends RunCursor {
+    /**
+     * Метод, возвращающий текущее значение.
+     *
+     * @return текущее значение.
+     */
+    T head();
+
+    @Override
+    default void writeHead(OutputStream output) throws IOException {
+        output.write(String.valueOf(head()).getBytes(StandardCharsets.UTF_8));
+    }
+}
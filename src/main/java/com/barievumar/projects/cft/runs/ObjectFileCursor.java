@@ -0,0 +1,66 @@
+package com.barievumar.projects.cft.runs;
+
+import java.io.IOException;
+
+/**
+ * Курсор по серии во временном файле, записи которой декодируются в объекты.
+ *
+ * @param <T> тип значений.
+ */
+public class ObjectFileCursor<T> implements ObjectCursor<T> {
+    /**
+     * Читатель серии.
+     */
+    private final RunReader reader;
+    /**
+     * Формат записей серии.
+     */
+    private final RunFormat<T> format;
+    /**
+     * Текущее значение, null если серия закончилась.
+     */
+    private T head;
+
+    /**
+     * Конструктор
+     *
+     * @param reader читатель серии.
+     * @param format формат записей серии.
+     */
+    public ObjectFileCursor(RunReader reader, RunFormat<T> format) throws IOException {
+        this.reader = reader;
+        this.format = format;
+        advance();
+    }
+
+    @Override
+    public boolean hasHead() {
+        return head != null;
+    }
+
+    @Override
+    public T head() {
+        return head;
+    }
+
+    @Override
+    public void advance() throws IOException {
+        head = reader.next() ? format.decode(reader.getRecord(), 0, reader.getRecordLength()) : null;
+    }
+
+    @Override
+    public long headCount() {
+        return reader.getRecordCount();
+    }
+
+    @Override
+    public void writeHeadRecord(RunWriter writer, long count) throws IOException {
+        // запись уже закодирована, поэтому копируется без повторного кодирования
+        writer.writeRecord(reader.getRecord(), 0, reader.getRecordLength(), count);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
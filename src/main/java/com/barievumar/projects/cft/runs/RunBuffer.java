@@ -0,0 +1,59 @@
+package com.barievumar.projects.cft.runs;
+
+import com.barievumar.projects.cft.enums.SortDirection;
+
+import java.io.IOException;
+
+/**
+ * Буфер серии в памяти. Значения добавляются в буфер, затем сортируются и либо сливаются
+ * прямо из памяти, либо сбрасываются во временный файл.
+ */
+public interface RunBuffer {
+    /**
+     * Метод, добавляющий значение в буфер.
+     *
+     * @param bytes  массив, содержащий значение в UTF-8.
+     * @param offset смещение значения в массиве.
+     * @param length длина значения в байтах.
+     * @throws NumberFormatException если значение не соответствует типу данных.
+     */
+    void add(byte[] bytes, int offset, int length);
+
+    /**
+     * Метод, возвращающий количество значений в буфере.
+     *
+     * @return количество значений.
+     */
+    int size();
+
+    /**
+     * Метод, возвращающий оценку объема памяти, занимаемой буфером.
+     *
+     * @return объем памяти в байтах.
+     */
+    long byteSize();
+
+    /**
+     * Метод, выполняющий сортировку значений буфера.
+     * Если значения уже отсортированы, сортировка не выполняется.
+     *
+     * @param sortDirection направление сортировки.
+     */
+    void sort(SortDirection sortDirection);
+
+    /**
+     * Метод, возвращающий курсор по отсортированному буферу.
+     *
+     * @return курсор.
+     * @throws IllegalStateException если буфер не отсортирован.
+     */
+    RunCursor cursor();
+
+    /**
+     * Метод, записывающий отсортированные значения буфера в файл серии.
+     *
+     * @param writer файл серии.
+     * @throws IllegalStateException если буфер не отсортирован.
+     */
+    void writeTo(RunWriter writer) throws IOException;
+}
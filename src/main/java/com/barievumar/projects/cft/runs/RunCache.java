@@ -0,0 +1,460 @@
+package com.barievumar.projects.cft.runs;
+
+import com.barievumar.projects.cft.enums.DataType;
+import com.barievumar.projects.cft.enums.SortDirection;
+import com.barievumar.projects.cft.io.BlockIo;
+import com.barievumar.projects.cft.io.FileSnapshot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Постоянный кэш отсортированных серий входных файлов. Для входного файла хранится его отсортированная серия
+ * в формате RunWriter, поэтому при повторной сортировке неизмененного файла чтение, парсинг и сортировка
+ * пропускаются, и серия сливается прямо из кэша.
+ * <p>
+ * Запись кэша определяется путем к файлу, типом данных, направлением сортировки и форматом записей.
+ * Запись действительна, если совпадают размер файла, время изменения и SHA-256 содержимого. Каждая запись -
+ * два файла: name.run с серией и name.meta с описанием. Время изменения name.meta - время последнего
+ * использования записи: когда объем кэша превышает ограничение, удаляются давно не использованные записи (LRU).
+ * Записи и временные файлы, используемые заданиями этой JVM, не удаляются. В объем кэша входят и файлы серий
+ * без описания, и временные файлы, оставшиеся после сбоев: давно не изменявшиеся такие файлы удаляются.
+ */
+public class RunCache implements AutoCloseable {
+    /**
+     * Логгер.
+     */
+    public static Logger logger = Logger.getGlobal();
+
+    /**
+     * Ограничение объема кэша по умолчанию.
+     */
+    public static final long DEFAULT_MAX_BYTES = 1L << 30;
+
+    /**
+     * Признак файла описания.
+     */
+    private static final int META_MAGIC = 0x43465452;
+    /**
+     * Версия формата записей кэша.
+     */
+    private static final int META_VERSION = 2;
+    /**
+     * Расширение файла серии.
+     */
+    private static final String RUN_SUFFIX = ".run";
+    /**
+     * Расширение файла описания.
+     */
+    private static final String META_SUFFIX = ".meta";
+    /**
+     * Префикс временных файлов кэша.
+     */
+    private static final String TEMP_PREFIX = "cft-";
+    /**
+     * Расширение временных файлов кэша.
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+    /**
+     * Время, после которого временный файл или файл серии без описания считается оставшимся после сбоя.
+     */
+    private static final long STALE_FILE_MILLIS = 60 * 60 * 1000;
+    /**
+     * Размер буфера чтения при проверке файла серии.
+     */
+    private static final int VERIFY_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Количество заданий этой JVM, использующих каждую запись.
+     */
+    private static final Map<Path, Integer> entriesInUse = new ConcurrentHashMap<>();
+
+    /**
+     * Каталог кэша.
+     */
+    private final Path directory;
+    /**
+     * Ограничение объема кэша в байтах.
+     */
+    private final long maxBytes;
+    /**
+     * Записи, используемые этим заданием.
+     */
+    private final List<Path> usedEntries = new ArrayList<>();
+
+    /**
+     * Конструктор
+     *
+     * @param directory каталог кэша, создается при необходимости.
+     * @param maxBytes  ограничение объема кэша в байтах.
+     */
+    public RunCache(Path directory, long maxBytes) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Метод, ищущий действительную серию файла в кэше. Файл серии читается целиком, и поврежденная запись
+     * удаляется из кэша.
+     *
+     * @param file          входной файл.
+     * @param dataType      тип данных.
+     * @param sortDirection направление сортировки.
+     * @param formatId      описание формата записей, например номер столбца-ключа.
+     * @return серия из кэша, или null, если ее нет, файл изменился или запись повреждена.
+     */
+    public RunFile lookup(Path file, DataType dataType, SortDirection sortDirection, String formatId)
+            throws IOException {
+        var key = createKey(file, dataType, sortDirection, formatId);
+        var name = createName(key);
+        var metaPath = directory.resolve(name + META_SUFFIX);
+        var runPath = directory.resolve(name + RUN_SUFFIX);
+
+        Meta meta;
+        try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(metaPath)))) {
+            meta = Meta.read(file, input);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            logger.warning("Damaged cache entry " + metaPath + " will be replaced: " + e.getMessage());
+            return null;
+        }
+
+        if (!meta.key.equals(key) || !Files.exists(runPath) || Files.size(runPath) != meta.runBytes
+                || !meta.source.matchesFile()) {
+            return null;
+        }
+        try {
+            verifyRun(runPath, meta.runRecords);
+        } catch (IOException e) {
+            logger.warning("Damaged cache entry " + runPath + " will be evicted: " + e.getMessage());
+            if (!entriesInUse.containsKey(runPath)) {
+                Files.deleteIfExists(metaPath);
+                Files.deleteIfExists(runPath);
+            }
+            return null;
+        }
+
+        use(runPath);
+        Files.setLastModifiedTime(metaPath, FileTime.fromMillis(System.currentTimeMillis()));
+        return new RunFile(runPath, meta.runRecords, meta.runBytes, false);
+    }
+
+    /**
+     * Метод, создающий временный файл для серии, которая будет сохранена в кэш. Файл создается
+     * в каталоге кэша, чтобы сохранение было переименованием, а не копированием. Пока задание не закрыло кэш,
+     * файл не удаляется при вытеснении.
+     *
+     * @return путь к временному файлу.
+     */
+    public Path createTempFile() throws IOException {
+        var path = Files.createTempFile(directory, TEMP_PREFIX + "run-", TEMP_SUFFIX);
+        use(path);
+        return path;
+    }
+
+    /**
+     * Метод, сохраняющий серию файла в кэш. Временный файл серии переносится в кэш, предыдущая запись
+     * того же файла заменяется, а давно не использованные записи удаляются, если кэш превысил ограничение.
+     * Если сохранить серию не удалось, временный файл серии остается на прежнем месте.
+     *
+     * @param source        снимок входного файла, сделанный при чтении серии.
+     * @param dataType      тип данных.
+     * @param sortDirection направление сортировки.
+     * @param formatId      описание формата записей.
+     * @param run           серия во временном файле, созданном createTempFile().
+     * @return серия в кэше, или исходная временная серия, если она больше ограничения кэша,
+     * файл изменился во время чтения или старая запись этого файла используется другим заданием.
+     */
+    public RunFile store(FileSnapshot source, DataType dataType, SortDirection sortDirection, String formatId,
+                         RunFile run) throws IOException {
+        var file = source.getPath();
+        if (run.getBytes() > maxBytes) {
+            logger.info("Run of file " + file + " (" + run.getBytes() + " bytes) is larger than the cache limit "
+                    + maxBytes + " bytes and will not be cached");
+            return run;
+        }
+        if (!source.isComplete() || !source.isUnchanged()) {
+            logger.info("File " + file + " changed while reading, its run will not be cached");
+            return run;
+        }
+
+        var key = createKey(file, dataType, sortDirection, formatId);
+        var name = createName(key);
+        var runPath = directory.resolve(name + RUN_SUFFIX);
+        var metaPath = directory.resolve(name + META_SUFFIX);
+        if (entriesInUse.containsKey(runPath)) {
+            // старую серию этого файла еще сливает другое задание, заменять ее нельзя
+            logger.info("Cache entry " + name + " is in use, run of file " + file + " will not be cached");
+            return run;
+        }
+
+        // описание пишется заранее, чтобы после переноса серии оставалось только переименовать его
+        var meta = new Meta(key, source, run.getRecords(), run.getBytes());
+        var metaTemp = Files.createTempFile(directory, TEMP_PREFIX + "meta-", TEMP_SUFFIX);
+        try {
+            try (var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(metaTemp)))) {
+                meta.write(output);
+            }
+            // сначала удаляем описание, чтобы старое описание не указывало на новую серию
+            Files.deleteIfExists(metaPath);
+            move(run.getPath(), runPath);
+            try {
+                move(metaTemp, metaPath);
+            } catch (IOException e) {
+                // без описания серия в кэше бесполезна, возвращаем ее на место временного файла
+                try {
+                    move(runPath, run.getPath());
+                } catch (IOException moveError) {
+                    logger.warning("Cannot cache run of file " + file + ": " + e.getMessage()
+                            + ", the run stays in " + runPath + ": " + moveError.getMessage());
+                    return new RunFile(runPath, run.getRecords(), run.getBytes(), true);
+                }
+                throw e;
+            }
+        } finally {
+            Files.deleteIfExists(metaTemp);
+        }
+        use(runPath);
+        logger.info("Cached run of file " + file + " as " + name + " (" + run.getRecords() + " records, "
+                + run.getBytes() + " bytes)");
+
+        try {
+            evict();
+        } catch (IOException e) {
+            // запись уже сохранена, лишние записи будут удалены при следующем сохранении
+            logger.warning("Cannot evict cache entries: " + e.getMessage());
+        }
+        return new RunFile(runPath, run.getRecords(), run.getBytes(), false);
+    }
+
+    /**
+     * Метод, освобождающий записи, использованные заданием, чтобы их можно было вытеснить.
+     */
+    @Override
+    public void close() {
+        for (Path entry : usedEntries) {
+            entriesInUse.computeIfPresent(entry, (path, count) -> count > 1 ? count - 1 : null);
+        }
+        usedEntries.clear();
+    }
+
+    /**
+     * Метод, удаляющий давно не использованные записи, пока объем кэша больше ограничения.
+     * Временные файлы и файлы серий без описания учитываются в объеме кэша и удаляются,
+     * если не используются этой JVM и не изменялись дольше STALE_FILE_MILLIS.
+     */
+    private void evict() throws IOException {
+        var entries = new PriorityQueue<Entry>((first, second) -> Long.compare(first.lastUsed, second.lastUsed));
+        var staleBefore = System.currentTimeMillis() - STALE_FILE_MILLIS;
+        long totalBytes = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                var fileName = path.getFileName().toString();
+                try {
+                    if (fileName.endsWith(META_SUFFIX)) {
+                        var runPath = directory.resolve(
+                                fileName.substring(0, fileName.length() - META_SUFFIX.length()) + RUN_SUFFIX);
+                        var bytes = Files.size(path) + (Files.exists(runPath) ? Files.size(runPath) : 0);
+                        entries.add(new Entry(path, runPath, bytes, Files.getLastModifiedTime(path).toMillis()));
+                        totalBytes += bytes;
+                    } else if (isOrphan(path, fileName)) {
+                        var bytes = Files.size(path);
+                        if (!entriesInUse.containsKey(path)
+                                && Files.getLastModifiedTime(path).toMillis() < staleBefore) {
+                            Files.deleteIfExists(path);
+                            logger.info("Deleted stale cache file " + fileName + " (" + bytes + " bytes)");
+                        } else {
+                            totalBytes += bytes;
+                        }
+                    }
+                } catch (NoSuchFileException e) {
+                    // файл удален другим заданием
+                }
+            }
+        }
+
+        while (totalBytes > maxBytes && !entries.isEmpty()) {
+            var entry = entries.remove();
+            if (entriesInUse.containsKey(entry.runPath)) continue;
+            Files.deleteIfExists(entry.metaPath);
+            Files.deleteIfExists(entry.runPath);
+            totalBytes -= entry.bytes;
+            logger.info("Evicted cache entry " + entry.runPath.getFileName() + " (" + entry.bytes + " bytes)");
+        }
+    }
+
+    /**
+     * Метод, проверяющий, что файл каталога кэша не входит ни в одну запись: это временный файл
+     * или файл серии без описания.
+     *
+     * @param path     путь к файлу.
+     * @param fileName имя файла.
+     * @return true, если файл не входит ни в одну запись.
+     */
+    private boolean isOrphan(Path path, String fileName) {
+        if (fileName.startsWith(TEMP_PREFIX) && fileName.endsWith(TEMP_SUFFIX)) return true;
+        if (!fileName.endsWith(RUN_SUFFIX)) return false;
+        var name = fileName.substring(0, fileName.length() - RUN_SUFFIX.length());
+        return !Files.exists(directory.resolve(name + META_SUFFIX)) && Files.isRegularFile(path);
+    }
+
+    /**
+     * Метод, проверяющий, что файл серии читается до конца и содержит ожидаемое количество записей,
+     * чтобы поврежденная запись кэша не прерывала слияние.
+     *
+     * @param runPath путь к файлу серии.
+     * @param records количество записей серии из описания.
+     * @throws IOException если файл серии поврежден.
+     */
+    private static void verifyRun(Path runPath, long records) throws IOException {
+        long count = 0;
+        try (var reader = new RunReader(runPath, new BlockIo(BlockIo.DEFAULT_BUFFER_COUNT, VERIFY_BUFFER_SIZE))) {
+            while (reader.next()) {
+                count++;
+            }
+        }
+        if (count != records) throw new IOException("Expected " + records + " records, found " + count);
+    }
+
+    /**
+     * Метод, отмечающий запись как используемую заданием.
+     *
+     * @param runPath путь к файлу серии записи.
+     */
+    private void use(Path runPath) {
+        entriesInUse.merge(runPath, 1, Integer::sum);
+        usedEntries.add(runPath);
+    }
+
+    /**
+     * Метод, создающий ключ записи кэша.
+     *
+     * @param file          входной файл.
+     * @param dataType      тип данных.
+     * @param sortDirection направление сортировки.
+     * @param formatId      описание формата записей.
+     * @return ключ записи.
+     */
+    private static String createKey(Path file, DataType dataType, SortDirection sortDirection, String formatId) {
+        return file.toAbsolutePath().normalize() + "\n" + dataType + "\n" + sortDirection + "\n" + formatId;
+    }
+
+    /**
+     * Метод, создающий имя файлов записи по ключу.
+     *
+     * @param key ключ записи.
+     * @return имя файлов записи без расширения.
+     */
+    private static String createName(String key) {
+        var digest = createDigest().digest(key.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest, 0, 16);
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 обязателен для всех реализаций Java
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Метод, переносящий файл с заменой, атомарно, если файловая система это поддерживает.
+     *
+     * @param source исходный файл.
+     * @param target новый путь.
+     */
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Описание записи кэша.
+     */
+    private static class Meta {
+        /**
+         * Ключ записи.
+         */
+        private final String key;
+        /**
+         * Снимок входного файла, из которого получена серия.
+         */
+        private final FileSnapshot source;
+        /**
+         * Количество записей серии.
+         */
+        private final long runRecords;
+        /**
+         * Размер файла серии.
+         */
+        private final long runBytes;
+
+        private Meta(String key, FileSnapshot source, long runRecords, long runBytes) {
+            this.key = key;
+            this.source = source;
+            this.runRecords = runRecords;
+            this.runBytes = runBytes;
+        }
+
+        private static Meta read(Path file, DataInputStream input) throws IOException {
+            if (input.readInt() != META_MAGIC || input.readInt() != META_VERSION) {
+                throw new IOException("Unknown cache entry format");
+            }
+            var key = input.readUTF();
+            var source = FileSnapshot.read(file, input);
+            return new Meta(key, source, input.readLong(), input.readLong());
+        }
+
+        private void write(DataOutputStream output) throws IOException {
+            output.writeInt(META_MAGIC);
+            output.writeInt(META_VERSION);
+            output.writeUTF(key);
+            source.write(output);
+            output.writeLong(runRecords);
+            output.writeLong(runBytes);
+        }
+    }
+
+    /**
+     * Запись кэша при вытеснении.
+     */
+    private static class Entry {
+        private final Path metaPath;
+        private final Path runPath;
+        private final long bytes;
+        private final long lastUsed;
+
+        private Entry(Path metaPath, Path runPath, long bytes, long lastUsed) {
+            this.metaPath = metaPath;
+            this.runPath = runPath;
+            this.bytes = bytes;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.barievumar.projects.cft.runs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Курсор, последовательно проходящий по значениям отсортированной серии (run).
+ * Текущее значение курсора называется головой серии.
+ */
+public interface RunCursor extends Closeable {
+    /**
+     * Метод, проверяющий, есть ли у курсора текущее значение.
+     *
+     * @return true, если текущее значение есть, false, если серия закончилась.
+     */
+    boolean hasHead();
+
+    /**
+     * Метод, переводящий курсор к следующему значению.
+     */
+    void advance() throws IOException;
+
+    /**
+     * Метод, записывающий текущее значение в текстовом виде, без перевода строки.
+     *
+     * @param output выходной поток.
+     */
+    void writeHead(OutputStream output) throws IOException;
+
+    /**
+     * Метод, возвращающий количество повторений текущего значения. Больше 1 только у серий,
+     * хранящих значения с количествами.
+     *
+     * @return количество повторений.
+     */
+    default long headCount() {
+        return 1;
+    }
+
+    /**
+     * Метод, записывающий текущее значение в серию, в двоичном формате записей серии.
+     *
+     * @param writer писатель серии.
+     * @param count  количество повторений значения.
+     */
+    void writeHeadRecord(RunWriter writer, long count) throws IOException;
+
+    @Override
+    default void close() throws IOException {
+    }
+}
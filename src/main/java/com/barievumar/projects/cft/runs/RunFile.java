@@ -0,0 +1,115 @@
+package com.barievumar.projects.cft.runs;
+
+import com.barievumar.projects.cft.io.BlockIo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.Logger;
+
+/**
+ * Отсортированная серия в файле: временном, сброшенном во время сортировки, или постоянном, из кэша серий.
+ *
+ * @see RunCache
+ */
+public class RunFile {
+    /**
+     * Логгер.
+     */
+    public static Logger logger = Logger.getGlobal();
+
+    /**
+     * Путь к файлу серии.
+     */
+    private final Path path;
+    /**
+     * Количество записей в серии.
+     */
+    private final long records;
+    /**
+     * Размер файла серии в байтах.
+     */
+    private final long bytes;
+    /**
+     * true, если файл временный и удаляется после слияния.
+     */
+    private final boolean temporary;
+
+    /**
+     * Конструктор временной серии.
+     *
+     * @param path    путь к файлу серии.
+     * @param records количество записей в серии.
+     * @param bytes   размер файла серии в байтах.
+     */
+    public RunFile(Path path, long records, long bytes) {
+        this(path, records, bytes, true);
+    }
+
+    /**
+     * Конструктор
+     *
+     * @param path      путь к файлу серии.
+     * @param records   количество записей в серии.
+     * @param bytes     размер файла серии в байтах.
+     * @param temporary true, если файл временный и удаляется после слияния.
+     */
+    public RunFile(Path path, long records, long bytes, boolean temporary) {
+        this.path = path;
+        this.records = records;
+        this.bytes = bytes;
+        this.temporary = temporary;
+    }
+
+    /**
+     * Метод, создающий пустой временный файл для серии.
+     *
+     * @return путь к временному файлу.
+     */
+    public static Path createTempFile() throws IOException {
+        return Files.createTempFile("cft-run-", ".run");
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public boolean isTemporary() {
+        return temporary;
+    }
+
+    /**
+     * Метод, открывающий серию для чтения.
+     *
+     * @param io параметры блочного чтения.
+     * @return читатель серии.
+     */
+    public RunReader open(BlockIo io) throws IOException {
+        return new RunReader(path, io);
+    }
+
+    /**
+     * Метод, удаляющий файл серии, если он временный. Постоянные файлы кэша не удаляются.
+     */
+    public void delete() {
+        if (!temporary) return;
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warning("Cannot delete temporary run file " + path + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return path.getFileName() + " (" + records + " records, " + bytes + " bytes)";
+    }
+}
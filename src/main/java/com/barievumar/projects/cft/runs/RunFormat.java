@@ -0,0 +1,39 @@
+package com.barievumar.projects.cft.runs;
+
+import java.io.IOException;
+
+/**
+ * Интерфейс, объединяющий форматы записей серий для разных типов данных.
+ *
+ * @param <T> тип значений.
+ */
+public interface RunFormat<T> {
+    /**
+     * Метод, записывающий значение в серию.
+     *
+     * @param value  значение.
+     * @param writer файл серии.
+     */
+    default void write(T value, RunWriter writer) throws IOException {
+        write(value, 1, writer);
+    }
+
+    /**
+     * Метод, записывающий значение с количеством повторений в серию.
+     *
+     * @param value  значение.
+     * @param count  количество повторений значения.
+     * @param writer файл серии.
+     */
+    void write(T value, long count, RunWriter writer) throws IOException;
+
+    /**
+     * Метод, восстанавливающий значение из записи серии.
+     *
+     * @param record массив, содержащий запись.
+     * @param offset смещение записи в массиве.
+     * @param length длина записи.
+     * @return значение.
+     */
+    T decode(byte[] record, int offset, int length);
+}
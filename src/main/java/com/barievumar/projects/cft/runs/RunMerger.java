@@ -0,0 +1,239 @@
+package com.barievumar.projects.cft.runs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Класс, выполняющий слияние нескольких отсортированных серий за один проход.
+ * Головы серий хранятся в двоичной куче, поэтому выбор следующего значения занимает O(log k).
+ * Из равных голов первой выбирается голова серии, стоящей раньше в списке, поэтому слияние устойчиво.
+ * Если включено объединение равных значений, равные головы всех серий объединяются в одно значение
+ * с суммой количеств повторений, и при записи в выходной файл оно разворачивается обратно
+ * или записывается один раз, если нужны только уникальные значения.
+ *
+ * @param <C> тип курсоров.
+ */
+public class RunMerger<C extends RunCursor> {
+    /**
+     * Разделитель строк выходного файла.
+     */
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Правило сравнения голов серий, с учетом направления сортировки.
+     */
+    private final Comparator<? super C> comparator;
+    /**
+     * true, если равные головы серий объединяются.
+     */
+    private final boolean combineEqual;
+    /**
+     * true, если в выходной файл каждое значение записывается один раз.
+     */
+    private final boolean unique;
+
+    /**
+     * Буфер текстового вида значения, записываемого несколько раз подряд.
+     */
+    private final ByteArrayOutputStream repeatBuffer = new ByteArrayOutputStream();
+
+    /**
+     * Конструктор
+     *
+     * @param comparator правило сравнения голов серий, с учетом направления сортировки.
+     */
+    public RunMerger(Comparator<? super C> comparator) {
+        this(comparator, false, false);
+    }
+
+    /**
+     * Конструктор
+     *
+     * @param comparator   правило сравнения голов серий, с учетом направления сортировки.
+     * @param combineEqual true, если равные головы серий нужно объединять. Нельзя включать, если равные
+     *                     по правилу сравнения значения различаются, как записи с одинаковым ключом.
+     * @param unique       true, если в выходной файл каждое значение нужно записать один раз.
+     *                     Включает объединение равных голов.
+     */
+    public RunMerger(Comparator<? super C> comparator, boolean combineEqual, boolean unique) {
+        this.comparator = comparator;
+        this.combineEqual = combineEqual || unique;
+        this.unique = unique;
+    }
+
+    /**
+     * Метод, выполняющий слияние серий и запись значений в текстовом виде, по одному на строку.
+     *
+     * @param cursors курсоры сливаемых серий.
+     * @param output  выходной поток.
+     * @return количество записанных значений.
+     */
+    public long mergeInto(List<C> cursors, OutputStream output) throws IOException {
+        return merge(cursors, (cursor, count) -> {
+            if (unique || count == 1) {
+                cursor.writeHead(output);
+                output.write(LINE_SEPARATOR);
+                return unique ? 1 : count;
+            }
+            // текстовый вид значения строится один раз и повторяется count раз
+            repeatBuffer.reset();
+            cursor.writeHead(repeatBuffer);
+            repeatBuffer.write(LINE_SEPARATOR);
+            for (long i = 0; i < count; i++) {
+                repeatBuffer.writeTo(output);
+            }
+            return count;
+        });
+    }
+
+    /**
+     * Метод, выполняющий слияние серий в новую серию, в двоичном формате записей.
+     * Используется для промежуточных проходов многопроходного слияния.
+     *
+     * @param cursors курсоры сливаемых серий.
+     * @param writer  писатель новой серии.
+     * @return количество записанных значений.
+     * @see MergePlan
+     */
+    public long mergeInto(List<C> cursors, RunWriter writer) throws IOException {
+        return merge(cursors, (cursor, count) -> {
+            cursor.writeHeadRecord(writer, count);
+            return count;
+        });
+    }
+
+    /**
+     * Метод, выполняющий слияние серий. Куча хранит номера курсоров в списке, и из равных голов первой
+     * выбирается голова курсора с меньшим номером, поэтому записи с равными ключами выходят в порядке серий.
+     *
+     * @param cursors    курсоры сливаемых серий.
+     * @param headWriter получатель очередного значения.
+     * @return количество записанных значений.
+     */
+    private long merge(List<C> cursors, HeadWriter<C> headWriter) throws IOException {
+        var heap = createHeap(cursors);
+        var heapSize = heap.length;
+        long written = 0;
+
+        while (heapSize > 0) {
+            var index = heap[0];
+            var cursor = cursors.get(index);
+            if (!combineEqual) {
+                written += headWriter.write(cursor, cursor.headCount());
+                cursor.advance();
+                if (!cursor.hasHead()) heap[0] = heap[--heapSize];
+                siftDown(cursors, heap, heapSize, 0);
+                continue;
+            }
+
+            // вынимаем курсор из кучи и забираем у остальных курсоров равные ему головы
+            heap[0] = heap[--heapSize];
+            siftDown(cursors, heap, heapSize, 0);
+            var count = cursor.headCount();
+            while (heapSize > 0 && comparator.compare(cursors.get(heap[0]), cursor) == 0) {
+                var other = cursors.get(heap[0]);
+                count += other.headCount();
+                other.advance();
+                if (!other.hasHead()) heap[0] = heap[--heapSize];
+                siftDown(cursors, heap, heapSize, 0);
+            }
+            written += headWriter.write(cursor, count);
+
+            cursor.advance();
+            if (cursor.hasHead()) {
+                heap[heapSize] = index;
+                siftUp(cursors, heap, heapSize++);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Метод, создающий двоичную кучу из номеров непустых курсоров.
+     *
+     * @param cursors курсоры.
+     * @return двоичная куча номеров курсоров.
+     */
+    private int[] createHeap(List<C> cursors) {
+        var heap = IntStream.range(0, cursors.size()).filter(i -> cursors.get(i).hasHead()).toArray();
+        for (int i = heap.length / 2 - 1; i >= 0; i--) {
+            siftDown(cursors, heap, heap.length, i);
+        }
+        return heap;
+    }
+
+    /**
+     * Метод, сравнивающий головы курсоров, а при равных головах - номера курсоров.
+     *
+     * @param cursors курсоры.
+     * @param first   номер первого курсора.
+     * @param second  номер второго курсора.
+     * @return результат сравнения.
+     */
+    private int compare(List<C> cursors, int first, int second) {
+        var result = comparator.compare(cursors.get(first), cursors.get(second));
+        return result != 0 ? result : Integer.compare(first, second);
+    }
+
+    /**
+     * Метод, восстанавливающий свойство кучи, начиная с заданного элемента.
+     *
+     * @param cursors  курсоры.
+     * @param heap     куча номеров курсоров.
+     * @param heapSize размер кучи.
+     * @param index    индекс элемента.
+     */
+    private void siftDown(List<C> cursors, int[] heap, int heapSize, int index) {
+        if (index >= heapSize) return;
+        var cursor = heap[index];
+        while (true) {
+            var child = index * 2 + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && compare(cursors, heap[child + 1], heap[child]) < 0) child++;
+            if (compare(cursors, cursor, heap[child]) <= 0) break;
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = cursor;
+    }
+
+    /**
+     * Метод, поднимающий элемент кучи вверх, пока он меньше родителя.
+     *
+     * @param cursors курсоры.
+     * @param heap    куча номеров курсоров.
+     * @param index   индекс элемента.
+     */
+    private void siftUp(List<C> cursors, int[] heap, int index) {
+        var cursor = heap[index];
+        while (index > 0) {
+            var parent = (index - 1) / 2;
+            if (compare(cursors, heap[parent], cursor) <= 0) break;
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = cursor;
+    }
+
+    /**
+     * Получатель текущего значения курсора.
+     *
+     * @param <C> тип курсоров.
+     */
+    @FunctionalInterface
+    private interface HeadWriter<C> {
+        /**
+         * Метод, записывающий текущее значение курсора.
+         *
+         * @param cursor курсор.
+         * @param count  количество повторений значения.
+         * @return количество записанных значений.
+         */
+        long write(C cursor, long count) throws IOException;
+    }
+}
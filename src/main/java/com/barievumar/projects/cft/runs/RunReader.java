@@ -0,0 +1,124 @@
+package com.barievumar.projects.cft.runs;
+
+import com.barievumar.projects.cft.io.BlockIo;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * Класс, читающий серию, записанную RunWriter.
+ * Буфер записи переиспользуется и действителен до следующего вызова next().
+ *
+ * @see RunWriter
+ */
+public class RunReader implements Closeable {
+    /**
+     * Максимальная длина записи: наибольший размер массива.
+     */
+    public static final int MAX_RECORD = Integer.MAX_VALUE - 8;
+
+    /**
+     * Входной поток.
+     */
+    private final InputStream input;
+
+    /**
+     * Буфер текущей записи.
+     */
+    private byte[] record = new byte[64];
+    /**
+     * Длина текущей записи.
+     */
+    private int recordLength;
+    /**
+     * Количество повторений текущей записи.
+     */
+    private long recordCount;
+
+    /**
+     * Конструктор
+     *
+     * @param file файл серии.
+     * @param io   параметры блочного чтения, следующие блоки читаются, пока разбирается текущий.
+     */
+    public RunReader(Path file, BlockIo io) throws IOException {
+        this.input = io.newInputStream(file);
+    }
+
+    /**
+     * Метод, читающий следующую запись.
+     *
+     * @return true, если запись прочитана, false, если достигнут конец серии.
+     * @throws IOException если файл серии поврежден.
+     */
+    public boolean next() throws IOException {
+        var header = readVarint(true);
+        if (header < 0) return false;
+        var length = header >>> 1;
+        if (length > MAX_RECORD) throw new IOException("Wrong record length in run file: " + length);
+        recordCount = (header & 1) != 0 ? readVarint(false) : 1;
+        if (recordCount < 1) throw new IOException("Wrong record count in run file: " + recordCount);
+
+        if (record.length < length) record = new byte[(int) Math.min(MAX_RECORD, Math.max(length, record.length * 2L))];
+        if (input.readNBytes(record, 0, (int) length) != length) throw new EOFException("Unexpected end of run file");
+        recordLength = (int) length;
+        return true;
+    }
+
+    /**
+     * Метод, читающий число в формате varint.
+     *
+     * @param atRecordStart true, если конец серии в этом месте допустим.
+     * @return число, или -1, если достигнут конец серии.
+     */
+    private long readVarint(boolean atRecordStart) throws IOException {
+        long value = 0;
+        var shift = 0;
+        int next;
+        while ((next = input.read()) >= 0x80) {
+            value |= (long) (next & 0x7F) << shift;
+            shift += 7;
+            if (shift > 63) throw new IOException("Malformed varint in run file");
+        }
+        if (next < 0) {
+            if (atRecordStart && shift == 0) return -1;
+            throw new EOFException("Unexpected end of run file");
+        }
+        return value | (long) next << shift;
+    }
+
+    /**
+     * Метод, возвращающий буфер текущей записи.
+     *
+     * @return буфер текущей записи.
+     */
+    public byte[] getRecord() {
+        return record;
+    }
+
+    /**
+     * Метод, возвращающий длину текущей записи.
+     *
+     * @return длина текущей записи.
+     */
+    public int getRecordLength() {
+        return recordLength;
+    }
+
+    /**
+     * Метод, возвращающий количество повторений текущей записи.
+     *
+     * @return количество повторений, 1 для записей без повторений.
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
@@ -0,0 +1,123 @@
+package com.barievumar.projects.cft.runs;
+
+import com.barievumar.projects.cft.io.BlockIo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+/**
+ * Класс, записывающий серию в компактном двоичном формате: каждая запись - заголовок (varint) и байты записи.
+ * Заголовок содержит длину записи, сдвинутую на один бит, младший бит показывает, что после заголовка записано
+ * количество повторений записи (varint). Повторения появляются у серий, хранящих значения с количествами.
+ *
+ * @see RunReader
+ */
+public class RunWriter implements Closeable {
+    /**
+     * Выходной поток.
+     */
+    private final OutputStream output;
+
+    /**
+     * Вспомогательный буфер для кодирования записей.
+     */
+    private byte[] scratch = new byte[64];
+
+    /**
+     * Количество записанных записей.
+     */
+    private long records;
+    /**
+     * Количество записанных байтов.
+     */
+    private long bytes;
+
+    /**
+     * Конструктор
+     *
+     * @param file файл серии.
+     * @param io   параметры блочной записи, предыдущие блоки записываются, пока заполняется текущий.
+     */
+    public RunWriter(Path file, BlockIo io) throws IOException {
+        this.output = io.newOutputStream(file);
+    }
+
+    /**
+     * Метод, записывающий одну запись.
+     *
+     * @param record массив, содержащий запись.
+     * @param offset смещение записи в массиве.
+     * @param length длина записи.
+     */
+    public void writeRecord(byte[] record, int offset, int length) throws IOException {
+        writeRecord(record, offset, length, 1);
+    }
+
+    /**
+     * Метод, записывающий одну запись с количеством повторений.
+     *
+     * @param record массив, содержащий запись.
+     * @param offset смещение записи в массиве.
+     * @param length длина записи.
+     * @param count  количество повторений записи, не меньше 1.
+     */
+    public void writeRecord(byte[] record, int offset, int length, long count) throws IOException {
+        writeVarint((long) length << 1 | (count > 1 ? 1 : 0));
+        if (count > 1) writeVarint(count);
+        output.write(record, offset, length);
+        bytes += length;
+        records++;
+    }
+
+    /**
+     * Метод, записывающий неотрицательное число в формате varint: по 7 бит в байте, младшие биты первыми.
+     *
+     * @param value число.
+     */
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+            bytes++;
+        }
+        output.write((int) value);
+        bytes++;
+    }
+
+    /**
+     * Метод, возвращающий вспомогательный буфер не меньше заданного размера.
+     * Буфер переиспользуется и действителен до следующего вызова.
+     *
+     * @param size необходимый размер.
+     * @return вспомогательный буфер.
+     */
+    public byte[] scratch(int size) {
+        if (scratch.length < size) scratch = new byte[Math.max(size, scratch.length * 2)];
+        return scratch;
+    }
+
+    /**
+     * Метод, возвращающий количество записанных записей.
+     *
+     * @return количество записей.
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * Метод, возвращающий количество записанных байтов.
+     *
+     * @return количество байтов.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        output.close();
+    }
+}
@@ -0,0 +1,21 @@
+package com.barievumar.projects.cft.runs;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Формат записей серии для String: байты строки в UTF-8.
+ * Совпадает с форматом, в котором ByteRun сбрасывает свои серии.
+ */
+public class StringRunFormat implements RunFormat<String> {
+    @Override
+    public void write(String value, long count, RunWriter writer) throws IOException {
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        writer.writeRecord(bytes, 0, bytes.length, count);
+    }
+
+    @Override
+    public String decode(byte[] record, int offset, int length) {
+        return new String(record, offset, length, StandardCharsets.UTF_8);
+    }
+}
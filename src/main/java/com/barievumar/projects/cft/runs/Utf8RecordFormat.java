@@ -0,0 +1,87 @@
+package com.barievumar.projects.cft.runs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Формат записей, в котором запись - это строка в UTF-8. Записи сравниваются беззнаково, побайтово,
+ * что совпадает с порядком кодовых точек Unicode. Префикс ключа - первые 8 байтов строки.
+ */
+public class Utf8RecordFormat implements ByteRecordFormat {
+    @Override
+    public boolean isKeyWholeRecord() {
+        return true;
+    }
+
+    @Override
+    public long prefix(ByteBuffer buffer, int offset, int length) {
+        return bytesPrefix(buffer, offset, length);
+    }
+
+    @Override
+    public int compare(ByteBuffer first, int firstOffset, int firstLength,
+                       ByteBuffer second, int secondOffset, int secondLength) {
+        return compareBytes(first, firstOffset, firstLength, second, secondOffset, secondLength);
+    }
+
+    @Override
+    public void writeText(ByteBuffer buffer, int offset, int length, OutputStream output, byte[] scratch)
+            throws IOException {
+        buffer.get(offset, scratch, 0, length);
+        output.write(scratch, 0, length);
+    }
+
+    /**
+     * Метод, возвращающий первые 8 байтов как число, сравнение которого со знаком
+     * совпадает с беззнаковым сравнением байтов. Недостающие байты считаются нулевыми.
+     *
+     * @param buffer буфер.
+     * @param offset смещение байтов в буфере.
+     * @param length количество байтов.
+     * @return префикс.
+     */
+    public static long bytesPrefix(ByteBuffer buffer, int offset, int length) {
+        long result;
+        if (length >= Long.BYTES) {
+            result = buffer.getLong(offset);
+        } else {
+            result = 0;
+            for (int i = 0; i < Long.BYTES; i++) {
+                result = result << 8 | (i < length ? buffer.get(offset + i) & 0xFF : 0);
+            }
+        }
+        return result ^ Long.MIN_VALUE;
+    }
+
+    /**
+     * Метод, выполняющий беззнаковое лексикографическое сравнение байтов на месте.
+     * Байты сравниваются блоками по 8, в конце - по одному.
+     *
+     * @param first        буфер первого значения.
+     * @param firstOffset  смещение первого значения.
+     * @param firstLength  длина первого значения.
+     * @param second       буфер второго значения.
+     * @param secondOffset смещение второго значения.
+     * @param secondLength длина второго значения.
+     * @return результат сравнения.
+     * -1, если второе значение больше,
+     * 0, если значения равны,
+     * 1, если первое значение больше.
+     */
+    public static int compareBytes(ByteBuffer first, int firstOffset, int firstLength,
+                                   ByteBuffer second, int secondOffset, int secondLength) {
+        var length = Math.min(firstLength, secondLength);
+        var i = 0;
+        for (; i + Long.BYTES <= length; i += Long.BYTES) {
+            var firstLong = first.getLong(firstOffset + i);
+            var secondLong = second.getLong(secondOffset + i);
+            if (firstLong != secondLong) return Long.compareUnsigned(firstLong, secondLong) < 0 ? -1 : 1;
+        }
+        for (; i < length; i++) {
+            var result = Integer.compare(first.get(firstOffset + i) & 0xFF, second.get(secondOffset + i) & 0xFF);
+            if (result != 0) return result;
+        }
+        return Integer.compare(firstLength, secondLength);
+    }
+}
@@ -0,0 +1,116 @@
+package com.barievumar.projects.cft.service;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Тонкий клиент сервиса сортировки. Принимает те же аргументы, что и Main,
+ * и передает их запущенному SortServer.
+ *
+ * @see SortServer
+ */
+public class SortClient {
+    /**
+     * Логгер.
+     */
+    public static Logger logger = Logger.getGlobal();
+
+    /**
+     * Параметр каталога кэша серий, значение которого - путь.
+     */
+    private static final String CACHE_OPTION = "--cache=";
+
+    public static void main(String[] args) throws IOException {
+        var port = SortServer.DEFAULT_PORT;
+        var sortArgs = new ArrayList<String>();
+        for (String arg : args) {
+            if (sortArgs.isEmpty() && arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+                continue;
+            }
+            sortArgs.add(arg);
+        }
+
+        var response = send(port, sortArgs);
+        if (response.isSuccess()) {
+            logger.info(response.getMessage());
+        } else {
+            logger.severe("Sort service cannot complete the job: " + response.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Метод, отправляющий задание сортировки сервису и ожидающий его выполнения.
+     * Пути к файлам и каталогу кэша преобразуются в абсолютные, так как рабочий каталог сервиса
+     * может отличаться от рабочего каталога клиента.
+     *
+     * @param port порт сервиса.
+     * @param args аргументы задания, в том же формате, что и аргументы Main.
+     * @return ответ сервиса.
+     */
+    public static Response send(int port, List<String> args) throws IOException {
+        try (var socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            var output = new DataOutputStream(socket.getOutputStream());
+            output.writeInt(args.size());
+            for (String arg : args) {
+                output.writeUTF(toServerArgument(arg));
+            }
+            output.flush();
+
+            var input = new DataInputStream(socket.getInputStream());
+            var success = input.readBoolean();
+            var message = new byte[input.readInt()];
+            input.readFully(message);
+            return new Response(success, new String(message, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Метод, преобразующий аргумент клиента в аргумент для сервиса: пути становятся абсолютными.
+     *
+     * @param arg аргумент клиента.
+     * @return аргумент для сервиса.
+     */
+    private static String toServerArgument(String arg) {
+        if (arg.startsWith(CACHE_OPTION)) {
+            return CACHE_OPTION + Paths.get(arg.substring(CACHE_OPTION.length())).toAbsolutePath();
+        }
+        return arg.startsWith("-") ? arg : Paths.get(arg).toAbsolutePath().toString();
+    }
+
+    /**
+     * Ответ сервиса сортировки.
+     */
+    public static class Response {
+        /**
+         * true, если задание выполнено успешно.
+         */
+        private final boolean success;
+        /**
+         * Сообщение сервиса.
+         */
+        private final String message;
+
+        public Response(boolean success, String message) {
+            this.success = success;
+            this.message = message;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.barievumar.projects.cft.service;
+
+import com.barievumar.projects.cft.Main;
+import com.barievumar.projects.cft.sort.MergeSort;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Резидентный сервис сортировки. Принимает задания на loopback-сокете и выполняет их
+ * на ограниченном пуле потоков, поэтому запуск JVM, загрузка классов и прогрев JIT
+ * оплачиваются один раз, а не на каждое задание.
+ * <p>
+ * Протокол: клиент передает количество аргументов (int) и сами аргументы (UTF),
+ * в том же формате, что и аргументы Main. Сервер отвечает признаком успеха (boolean)
+ * и сообщением: длиной в байтах (int) и байтами UTF-8, поэтому длина сообщения не ограничена 64 КБ.
+ * Запрос должен быть передан за requestTimeoutMillis, иначе соединение закрывается с ответом об ошибке,
+ * чтобы медленный или зависший клиент не занимал рабочий поток.
+ *
+ * @see SortClient
+ */
+public class SortServer implements Closeable {
+    /**
+     * Логгер.
+     */
+    public static Logger logger = Logger.getGlobal();
+
+    /**
+     * Порт по умолчанию.
+     */
+    public static final int DEFAULT_PORT = 7340;
+
+    /**
+     * Максимальное количество аргументов в одном запросе.
+     */
+    private static final int MAX_ARGUMENTS = 100_000;
+    /**
+     * Время на передачу запроса по умолчанию.
+     */
+    public static final int DEFAULT_REQUEST_TIMEOUT_MILLIS = 10_000;
+
+    /**
+     * Серверный сокет.
+     */
+    private final ServerSocket serverSocket;
+
+    /**
+     * Пул потоков, выполняющих задания сортировки.
+     */
+    private final ThreadPoolExecutor executor;
+    /**
+     * Время на передачу запроса.
+     */
+    private final int requestTimeoutMillis;
+
+    /**
+     * Конструктор
+     *
+     * @param port          порт на loopback-интерфейсе, 0 - любой свободный порт.
+     * @param threads       количество потоков, выполняющих задания одновременно.
+     * @param queueCapacity количество заданий, которые могут ожидать выполнения.
+     */
+    public SortServer(int port, int threads, int queueCapacity) throws IOException {
+        this(port, threads, queueCapacity, DEFAULT_REQUEST_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Конструктор
+     *
+     * @param port                 порт на loopback-интерфейсе, 0 - любой свободный порт.
+     * @param threads              количество потоков, выполняющих задания одновременно.
+     * @param queueCapacity        количество заданий, которые могут ожидать выполнения.
+     * @param requestTimeoutMillis время, за которое клиент должен передать запрос.
+     */
+    public SortServer(int port, int threads, int queueCapacity, int requestTimeoutMillis) throws IOException {
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new WorkerThreadFactory());
+    }
+
+    public static void main(String[] args) throws IOException {
+        var port = DEFAULT_PORT;
+        var threads = Runtime.getRuntime().availableProcessors();
+        var queueCapacity = threads * 4;
+        var requestTimeout = DEFAULT_REQUEST_TIMEOUT_MILLIS;
+
+        for (String arg : args) {
+            if (arg.startsWith("--port=")) port = Integer.parseInt(arg.substring("--port=".length()));
+            else if (arg.startsWith("--threads=")) threads = Integer.parseInt(arg.substring("--threads=".length()));
+            else if (arg.startsWith("--queue=")) queueCapacity = Integer.parseInt(arg.substring("--queue=".length()));
+            else if (arg.startsWith("--request-timeout=")) {
+                requestTimeout = Integer.parseInt(arg.substring("--request-timeout=".length()));
+            } else throw new IllegalArgumentException("Unknown server argument: " + arg
+                        + ". Expected --port=N, --threads=N, --queue=N or --request-timeout=MILLIS.");
+        }
+
+        try (var server = new SortServer(port, threads, queueCapacity, requestTimeout)) {
+            server.serve();
+        }
+    }
+
+    /**
+     * Метод, возвращающий порт, на котором работает сервер.
+     *
+     * @return порт сервера.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Метод, принимающий соединения до закрытия сервера.
+     */
+    public void serve() throws IOException {
+        logger.info("Sort service is listening on " + serverSocket.getLocalSocketAddress()
+                + " with " + executor.getMaximumPoolSize() + " worker threads");
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                // сокет закрыт методом close()
+                break;
+            }
+            try {
+                executor.execute(() -> handle(socket));
+            } catch (RejectedExecutionException e) {
+                logger.warning("Sort service is busy, request from " + socket.getRemoteSocketAddress() + " is rejected");
+                try (socket) {
+                    respond(socket, false, "Sort service is busy. Try again later.");
+                } catch (IOException ioException) {
+                    logger.log(Level.WARNING, "Cannot send response to the client", ioException);
+                }
+            }
+        }
+    }
+
+    /**
+     * Метод, выполняющий одно задание сортировки и отправляющий результат клиенту.
+     *
+     * @param socket соединение с клиентом.
+     */
+    private void handle(Socket socket) {
+        try (socket) {
+            String[] args;
+            try {
+                args = readArguments(socket);
+            } catch (IOException | IllegalArgumentException e) {
+                respond(socket, false, "Malformed request: " + e.getMessage());
+                return;
+            }
+
+            try {
+                var arguments = Main.parseArguments(args);
+                MergeSort.sortAndWrite(arguments.getDataType(), arguments.getDirection(), arguments.getOptions(),
+                        arguments.getOutputFilePath(), arguments.getInputFilePathsAsArray());
+                respond(socket, true, "Sorted into " + arguments.getOutputFilePath());
+            } catch (IllegalArgumentException | IOException e) {
+                respond(socket, false, e.getMessage());
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, "Sort job failed", e);
+                respond(socket, false, "Sort job failed: " + e);
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Cannot send response to the client", e);
+        }
+    }
+
+    /**
+     * Метод, читающий аргументы задания из сокета. Весь запрос должен быть прочитан за requestTimeoutMillis:
+     * запрос читается по частям, и перед каждым чтением тайм-аут сокета уменьшается до оставшегося времени,
+     * поэтому клиент, передающий запрос по байту, не может занимать рабочий поток дольше тайм-аута.
+     *
+     * @param socket соединение с клиентом.
+     * @return аргументы задания.
+     * @throws SocketTimeoutException если клиент не передал запрос вовремя.
+     */
+    private String[] readArguments(Socket socket) throws IOException {
+        var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(requestTimeoutMillis);
+        var input = socket.getInputStream();
+        var count = ByteBuffer.wrap(readBytes(socket, input, new byte[Integer.BYTES], deadline)).getInt();
+        if (count < 0 || count > MAX_ARGUMENTS) {
+            throw new IllegalArgumentException("wrong number of arguments " + count);
+        }
+        var args = new String[count];
+        for (int i = 0; i < count; i++) {
+            // аргумент записан DataOutputStream.writeUTF: длина в 2 байтах и байты modified UTF-8
+            var header = readBytes(socket, input, new byte[Short.BYTES], deadline);
+            var length = ((header[0] & 0xFF) << 8) | (header[1] & 0xFF);
+            var encoded = Arrays.copyOf(header, Short.BYTES + length);
+            readBytes(socket, input, encoded, Short.BYTES, deadline);
+            args[i] = DataInputStream.readUTF(new DataInputStream(new ByteArrayInputStream(encoded)));
+        }
+        // задание может выполняться дольше, тайм-аут нужен только на время чтения запроса
+        socket.setSoTimeout(0);
+        return args;
+    }
+
+    /**
+     * Метод, заполняющий массив байтами запроса до истечения срока приема запроса.
+     *
+     * @param socket   соединение с клиентом.
+     * @param input    входной поток сокета.
+     * @param bytes    массив для байтов.
+     * @param deadline момент окончания приема запроса, по System.nanoTime().
+     * @return заполненный массив.
+     */
+    private static byte[] readBytes(Socket socket, InputStream input, byte[] bytes, long deadline)
+            throws IOException {
+        return readBytes(socket, input, bytes, 0, deadline);
+    }
+
+    /**
+     * Метод, заполняющий массив байтами запроса, начиная с offset, до истечения срока приема запроса.
+     *
+     * @param socket   соединение с клиентом.
+     * @param input    входной поток сокета.
+     * @param bytes    массив для байтов.
+     * @param offset   позиция, с которой заполняется массив.
+     * @param deadline момент окончания приема запроса, по System.nanoTime().
+     * @return заполненный массив.
+     */
+    private static byte[] readBytes(Socket socket, InputStream input, byte[] bytes, int offset, long deadline)
+            throws IOException {
+        while (offset < bytes.length) {
+            setRemainingTimeout(socket, deadline);
+            var read = input.read(bytes, offset, bytes.length - offset);
+            if (read < 0) throw new EOFException("request is incomplete");
+            offset += read;
+        }
+        return bytes;
+    }
+
+    /**
+     * Метод, устанавливающий тайм-аут чтения сокета по времени, оставшемуся до конца приема запроса.
+     *
+     * @param socket   соединение с клиентом.
+     * @param deadline момент окончания приема запроса, по System.nanoTime().
+     */
+    private static void setRemainingTimeout(Socket socket, long deadline) throws IOException {
+        var remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remainingMillis <= 0) throw new SocketTimeoutException("request is not received in time");
+        socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, remainingMillis));
+    }
+
+    /**
+     * Метод, отправляющий ответ клиенту.
+     *
+     * @param socket  соединение с клиентом.
+     * @param success true, если задание выполнено успешно.
+     * @param message сообщение для клиента.
+     */
+    private static void respond(Socket socket, boolean success, String message) throws IOException {
+        var output = new DataOutputStream(socket.getOutputStream());
+        var bytes = (message == null ? "" : message).getBytes(StandardCharsets.UTF_8);
+        output.writeBoolean(success);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+        output.flush();
+    }
+
+    /**
+     * Метод, останавливающий сервер. Уже принятые задания выполняются до конца.
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.warning("Sort jobs did not finish in time and will be interrupted");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Фабрика именованных рабочих потоков.
+     */
+    private static class WorkerThreadFactory implements ThreadFactory {
+        /**
+         * Номер следующего потока.
+         */
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            var thread = new Thread(runnable, "sort-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
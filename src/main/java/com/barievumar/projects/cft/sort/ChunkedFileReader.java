@@ -0,0 +1,313 @@
+package com.barievumar.projects.cft.sort;
+
+import com.barievumar.projects.cft.enums.SortDirection;
+import com.barievumar.projects.cft.io.FileChunk;
+import com.barievumar.projects.cft.io.FileSnapshot;
+import com.barievumar.projects.cft.io.LineReader;
+import com.barievumar.projects.cft.runs.RunBuffer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Класс, читающий один большой файл по частям в нескольких потоках. Файл разбивается на диапазоны байтов,
+ * выровненные по началам строк, каждая часть разбирается и сортируется отдельно и сразу становится серией
+ * для слияния. Строки в части нумеруются с 1, а предупреждения выводятся после чтения всего файла,
+ * уже с номерами строк в файле, в том же порядке, что и при чтении в одном потоке.
+ *
+ * @see FileChunk
+ */
+class ChunkedFileReader implements AutoCloseable {
+    /**
+     * Логгер.
+     */
+    public static Logger logger = Logger.getGlobal();
+
+    /**
+     * Минимальный размер части файла. Файлы, которые нельзя разбить хотя бы на две такие части,
+     * читаются в одном потоке.
+     */
+    static final long MIN_CHUNK_BYTES = 1L << 20;
+    /**
+     * Количество частей на один поток, чтобы потоки, закончившие раньше, брали оставшиеся части.
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+    /**
+     * Количество значений, через которое проверяется размер серии части.
+     */
+    private static final int CHECK_INTERVAL = 4096;
+    /**
+     * Максимальное количество предупреждений, сохраняемых для одной части.
+     */
+    private static final int MAX_WARNINGS_PER_CHUNK = 1000;
+
+    /**
+     * Количество потоков.
+     */
+    private final int threads;
+    /**
+     * Фабрика буферов серий.
+     */
+    private final Supplier<RunBuffer> bufferFactory;
+    /**
+     * Направление сортировки.
+     */
+    private final SortDirection sortDirection;
+    /**
+     * Получатель отсортированных серий.
+     */
+    private final RunCollector runs;
+    /**
+     * Бюджет памяти задания.
+     */
+    private final MemoryBudget budget;
+    /**
+     * Потоки чтения.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Конструктор
+     *
+     * @param threads       количество потоков.
+     * @param bufferFactory фабрика буферов серий.
+     * @param sortDirection направление сортировки.
+     * @param runs          получатель отсортированных серий.
+     * @param budget        бюджет памяти задания.
+     */
+    ChunkedFileReader(int threads, Supplier<RunBuffer> bufferFactory, SortDirection sortDirection,
+                      RunCollector runs, MemoryBudget budget) {
+        this.threads = threads;
+        this.bufferFactory = bufferFactory;
+        this.sortDirection = sortDirection;
+        this.runs = runs;
+        this.budget = budget;
+        this.executor = Executors.newFixedThreadPool(threads, new ParserThreadFactory());
+    }
+
+    /**
+     * Метод, читающий файл по частям, если он достаточно большой.
+     *
+     * @param filePath      путь к файлу.
+     * @param parserFactory фабрика разборщиков строк, по одному на часть.
+     * @param snapshot      снимок файла, в который добавляются хэши частей, или null.
+     * @return true, если файл прочитан, false, если файл слишком мал и его нужно читать в одном потоке.
+     */
+    boolean read(Path filePath, Supplier<LineParser> parserFactory, FileSnapshot snapshot) throws IOException {
+        var chunkCount = (int) Math.min((long) threads * CHUNKS_PER_THREAD, Files.size(filePath) / MIN_CHUNK_BYTES);
+        if (chunkCount < 2) return false;
+
+        var chunks = FileChunk.split(filePath, chunkCount);
+        var futures = new ArrayList<Future<ChunkTask>>();
+        for (FileChunk chunk : chunks) {
+            futures.add(executor.submit(new ChunkTask(chunk, parserFactory.get(), snapshot)));
+        }
+
+        var tasks = new ArrayList<ChunkTask>();
+        try {
+            for (Future<ChunkTask> future : futures) {
+                tasks.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            // остальные части уже не нужны, останавливаем потоки до удаления временных файлов
+            close();
+            Thread.currentThread().interrupt();
+            throw new IOException("Reading of file " + filePath + " is interrupted", e);
+        } catch (ExecutionException e) {
+            close();
+            throw unwrap(e.getCause());
+        }
+
+        // номер первой строки части равен количеству строк во всех предыдущих частях
+        long linesBefore = 0;
+        for (ChunkTask task : tasks) {
+            task.logWarnings(linesBefore);
+            linesBefore += task.lineCount;
+        }
+        logger.info("Read file " + filePath + " in " + chunks.size() + " chunks on " + threads + " threads, "
+                + linesBefore + " lines");
+        return true;
+    }
+
+    /**
+     * Метод, извлекающий исключение, возникшее в потоке чтения.
+     *
+     * @param cause исключение потока чтения.
+     * @return исключение для выбрасывания в вызывающем потоке.
+     */
+    private static IOException unwrap(Throwable cause) {
+        if (cause instanceof IOException e) return e;
+        if (cause instanceof UncheckedIOException e) return e.getCause();
+        if (cause instanceof RuntimeException e) throw e;
+        if (cause instanceof Error e) throw e;
+        return new IOException(cause);
+    }
+
+    /**
+     * Метод, останавливающий потоки чтения и ожидающий их завершения, чтобы после закрытия
+     * ни один поток не добавлял серии в RunCollector.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.warning("Chunk parser threads did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Задача, читающая одну часть файла.
+     */
+    private class ChunkTask implements Callable<ChunkTask>, LineParser.Warnings {
+        /**
+         * Часть файла.
+         */
+        private final FileChunk chunk;
+        /**
+         * Разборщик строк.
+         */
+        private final LineParser parser;
+        /**
+         * Снимок файла, в который добавляется хэш части, или null.
+         */
+        private final FileSnapshot snapshot;
+        /**
+         * Номера строк предупреждений в части.
+         */
+        private final List<Long> warningLines = new ArrayList<>();
+        /**
+         * Тексты предупреждений.
+         */
+        private final List<LongFunction<String>> warningMessages = new ArrayList<>();
+        /**
+         * Количество предупреждений, не поместившихся в MAX_WARNINGS_PER_CHUNK.
+         */
+        private long droppedWarnings;
+        /**
+         * Количество строк в части.
+         */
+        private long lineCount;
+
+        /**
+         * Серия, в которую добавляются значения.
+         */
+        private RunBuffer buffer;
+        /**
+         * Количество значений, добавленных с последней проверки размера серии.
+         */
+        private int addedSinceCheck;
+        /**
+         * Количество серий, переданных в RunCollector, номер следующей серии части.
+         */
+        private int runCount;
+
+        private ChunkTask(FileChunk chunk, LineParser parser, FileSnapshot snapshot) {
+            this.chunk = chunk;
+            this.parser = parser;
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public ChunkTask call() throws IOException {
+            buffer = bufferFactory.get();
+            var input = chunk.newInputStream();
+            if (snapshot != null) input = snapshot.hashing(input, chunk.getStart());
+            try (var reader = new LineReader(input, LineReader.DEFAULT_BUFFER_SIZE)) {
+                while (reader.nextLine()) {
+                    parser.parse(reader.getLine(), reader.getLineLength(), ++lineCount, this::add, this);
+                }
+            }
+            finishRun();
+            buffer = null;
+            return this;
+        }
+
+        /**
+         * Метод, добавляющий значение в серию части. Если серия превысила долю потока в бюджете памяти,
+         * она сортируется и передается в RunCollector, а значения собираются в новую серию.
+         */
+        private void add(byte[] bytes, int offset, int length) {
+            buffer.add(bytes, offset, length);
+            if (++addedSinceCheck < CHECK_INTERVAL) return;
+            addedSinceCheck = 0;
+            if (buffer.byteSize() > budget.getRunBytes() / threads) {
+                try {
+                    finishRun();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                buffer = bufferFactory.get();
+            }
+        }
+
+        /**
+         * Метод, сортирующий серию части и передающий ее в RunCollector.
+         */
+        private void finishRun() throws IOException {
+            if (buffer.size() == 0) return;
+            buffer.sort(sortDirection);
+            runs.addSortedRun(buffer, chunk.getIndex(), runCount++);
+        }
+
+        @Override
+        public void warn(long lineNumber, LongFunction<String> message) {
+            if (warningLines.size() == MAX_WARNINGS_PER_CHUNK) {
+                droppedWarnings++;
+                return;
+            }
+            warningLines.add(lineNumber);
+            warningMessages.add(message);
+        }
+
+        /**
+         * Метод, выводящий предупреждения части с номерами строк в файле.
+         *
+         * @param linesBefore количество строк файла перед частью.
+         */
+        private void logWarnings(long linesBefore) {
+            for (int i = 0; i < warningLines.size(); i++) {
+                logger.warning(warningMessages.get(i).apply(linesBefore + warningLines.get(i)));
+            }
+            if (droppedWarnings > 0) {
+                logger.warning(droppedWarnings + " more warnings in lines " + (linesBefore + 1) + "-"
+                        + (linesBefore + lineCount) + " of file " + chunk.getPath() + " are not shown");
+            }
+        }
+    }
+
+    /**
+     * Фабрика потоков чтения.
+     */
+    private static class ParserThreadFactory implements ThreadFactory {
+        /**
+         * Номер следующего потока.
+         */
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            var thread = new Thread(runnable, "chunk-parser-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,449 @@
+package com.barievumar.projects.cft.sort;
+
+import com.barievumar.projects.cft.enums.DataType;
+import com.barievumar.projects.cft.enums.SortDirection;
+import com.barievumar.projects.cft.runs.ByteCursor;
+import com.barievumar.projects.cft.runs.ObjectCursor;
+import com.barievumar.projects.cft.runs.RunBuffer;
+import com.barievumar.projects.cft.runs.RunCursor;
+import com.barievumar.projects.cft.runs.RunFormat;
+import com.barievumar.projects.cft.runs.RunWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Серия для данных с малым количеством различных значений. Значения собираются в словарь
+ * (значение, количество), поэтому повторы не занимают память и не сравниваются при сортировке.
+ * Сортируются только различные значения: для INTEGER с небольшим диапазоном - подсчетом по гистограмме,
+ * иначе алгоритмом FilesMergeSort. Количества сохраняются в файлах серий и разворачиваются только
+ * при записи выходного файла.
+ * <p>
+ * Если серии сравниваются побайтово (--off-heap), ключами словаря служат сами UTF-8 байты значений,
+ * без создания строк, а различные значения сортируются обычной серией в порядке ее формата записей,
+ * тем же, что и при слиянии.
+ * <p>
+ * Малое количество различных значений определяется по первым SAMPLE_SIZE значениям серии и проверяется снова
+ * каждый раз, когда количество значений удваивается. Если различных значений много, собранные значения
+ * переносятся в обычную серию, и дальше серия работает как она.
+ *
+ * @param <T> тип значений.
+ */
+class CountingRun<T> implements RunBuffer {
+    /**
+     * Количество первых значений серии, по которым определяется, стоит ли хранить количества. Степень двойки.
+     */
+    static final int SAMPLE_SIZE = 16 * 1024;
+    /**
+     * Наибольшая доля различных значений, при которой хранятся количества.
+     */
+    private static final double MAX_DISTINCT_RATIO = 0.25;
+    /**
+     * Наибольший диапазон INTEGER значений для сортировки подсчетом, в количествах различных значений.
+     */
+    private static final int HISTOGRAM_RANGE_FACTOR = 16;
+    /**
+     * Оценка памяти на одно различное значение: элемент словаря, объект значения и счетчик.
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    /**
+     * Алгоритм, выполняющий парсинг, сравнение и сортировку значений.
+     */
+    private final FilesMergeSort<T> filesMergeSort;
+    /**
+     * Фабрика обычных серий, на случай если различных значений много.
+     */
+    private final Supplier<RunBuffer> fallbackFactory;
+    /**
+     * true, если курсор серии должен сравниваться побайтово, как курсоры ByteRun.
+     */
+    private final boolean byteCursor;
+    /**
+     * Ключ для поиска байтов значения в словаре без копирования.
+     */
+    private final ByteKey probe = new ByteKey();
+
+    /**
+     * Количества различных значений: ключи - значения типа T или ByteKey, если серия сравнивается побайтово.
+     * null после переноса в обычную серию.
+     */
+    private Map<Object, long[]> counts = new HashMap<>();
+    /**
+     * Обычная серия, если различных значений оказалось много.
+     */
+    private RunBuffer fallback;
+    /**
+     * Количество добавленных значений.
+     */
+    private long valueCount;
+    /**
+     * Оценка занимаемой памяти.
+     */
+    private long byteSize;
+
+    /**
+     * Различные значения в отсортированном порядке, если серия сравнивается как объекты.
+     */
+    private T[] sortedValues;
+    /**
+     * Различные значения в отсортированной обычной серии, если серия сравнивается побайтово.
+     */
+    private RunBuffer sortedKeys;
+    /**
+     * Количества различных значений в отсортированном порядке, null если серия не отсортирована.
+     */
+    private long[] sortedCounts;
+
+    /**
+     * Конструктор
+     *
+     * @param filesMergeSort  алгоритм, выполняющий парсинг, сравнение и сортировку значений.
+     * @param fallbackFactory фабрика обычных серий, на случай если различных значений много.
+     *                        Если курсор сравнивается побайтово, серии фабрики должны быть ByteRun.
+     * @param byteCursor      true, если курсор серии должен сравниваться побайтово.
+     */
+    CountingRun(FilesMergeSort<T> filesMergeSort, Supplier<RunBuffer> fallbackFactory, boolean byteCursor) {
+        this.filesMergeSort = filesMergeSort;
+        this.fallbackFactory = fallbackFactory;
+        this.byteCursor = byteCursor;
+    }
+
+    @Override
+    public void add(byte[] bytes, int offset, int length) {
+        if (fallback != null) {
+            fallback.add(bytes, offset, length);
+            return;
+        }
+        Object key = byteCursor
+                ? probe.set(bytes, offset, length)
+                : filesMergeSort.parseValue(new String(bytes, offset, length, StandardCharsets.UTF_8));
+        var count = counts.get(key);
+        if (count == null) {
+            counts.put(byteCursor ? probe.copy() : key, new long[]{1});
+            byteSize += ENTRY_OVERHEAD + (byteCursor ? length : filesMergeSort.getDataType() == DataType.STRING ? length * 2L : 0);
+        } else {
+            count[0]++;
+        }
+        sortedCounts = null;
+
+        // доля различных значений проверяется после выборки и далее при каждом удвоении количества значений,
+        // поэтому серия, в которой различных значений становится много, переходит в обычную серию
+        if (++valueCount >= SAMPLE_SIZE && (valueCount & (valueCount - 1)) == 0
+                && counts.size() > valueCount * MAX_DISTINCT_RATIO) {
+            switchToFallback();
+        }
+    }
+
+    @Override
+    public int size() {
+        if (fallback != null) return fallback.size();
+        return (int) Math.min(Integer.MAX_VALUE, valueCount);
+    }
+
+    @Override
+    public long byteSize() {
+        return fallback != null ? fallback.byteSize() : byteSize;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void sort(SortDirection sortDirection) {
+        // короткие серии, не набравшие SAMPLE_SIZE значений, проверяются при сортировке
+        if (fallback == null && valueCount < SAMPLE_SIZE && counts.size() > valueCount * MAX_DISTINCT_RATIO) {
+            switchToFallback();
+        }
+        if (fallback != null) {
+            fallback.sort(sortDirection);
+            return;
+        }
+        if (byteCursor) {
+            sortKeys(sortDirection);
+            return;
+        }
+
+        sortedValues = sortByHistogram(sortDirection);
+        if (sortedValues == null) {
+            var values = new ArrayList<T>(counts.size());
+            for (Object value : counts.keySet()) {
+                values.add((T) value);
+            }
+            sortedValues = filesMergeSort.sortAsArray(values, sortDirection);
+        }
+        sortedCounts = new long[sortedValues.length];
+        for (int i = 0; i < sortedValues.length; i++) {
+            sortedCounts[i] = counts.get(sortedValues[i])[0];
+        }
+    }
+
+    @Override
+    public RunCursor cursor() {
+        if (fallback != null) return fallback.cursor();
+        if (sortedCounts == null) throw new IllegalStateException("Run must be sorted before reading");
+        return byteCursor ? new KeyCursor() : new ValueCursor();
+    }
+
+    @Override
+    public void writeTo(RunWriter writer) throws IOException {
+        if (fallback != null) {
+            fallback.writeTo(writer);
+            return;
+        }
+        if (sortedCounts == null) throw new IllegalStateException("Run must be sorted before writing");
+        try (var cursor = cursor()) {
+            for (int i = 0; cursor.hasHead(); i++, cursor.advance()) {
+                cursor.writeHeadRecord(writer, sortedCounts[i]);
+            }
+        }
+    }
+
+    /**
+     * Метод, сортирующий различные значения, сравниваемые побайтово: значения добавляются в обычную серию
+     * по одному разу и сортируются ею, а количества находятся по байтам в отсортированном порядке.
+     *
+     * @param sortDirection направление сортировки.
+     */
+    private void sortKeys(SortDirection sortDirection) {
+        sortedKeys = fallbackFactory.get();
+        for (Object key : counts.keySet()) {
+            var bytes = ((ByteKey) key).bytes;
+            sortedKeys.add(bytes, 0, bytes.length);
+        }
+        sortedKeys.sort(sortDirection);
+
+        sortedCounts = new long[counts.size()];
+        var scratch = new byte[64];
+        var cursor = (ByteCursor) sortedKeys.cursor();
+        try {
+            for (int i = 0; cursor.hasHead(); i++, cursor.advance()) {
+                var length = cursor.headLength();
+                if (scratch.length < length) scratch = new byte[Math.max(length, scratch.length * 2)];
+                cursor.headBuffer().get(cursor.headOffset(), scratch, 0, length);
+                sortedCounts[i] = counts.get(probe.set(scratch, 0, length))[0];
+            }
+        } catch (IOException e) {
+            // курсор серии в памяти не выполняет ввод-вывод
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Метод, сортирующий различные INTEGER значения подсчетом: значения отмечаются в гистограмме
+     * по своему смещению от минимального и читаются из нее по порядку.
+     *
+     * @param sortDirection направление сортировки.
+     * @return отсортированные значения, или null, если тип не INTEGER или диапазон значений слишком велик.
+     */
+    @SuppressWarnings("unchecked")
+    private T[] sortByHistogram(SortDirection sortDirection) {
+        if (filesMergeSort.getDataType() != DataType.INTEGER || counts.isEmpty()) return null;
+
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (Object value : counts.keySet()) {
+            min = Math.min(min, (Integer) value);
+            max = Math.max(max, (Integer) value);
+        }
+        var range = max - min + 1;
+        if (range > (long) counts.size() * HISTOGRAM_RANGE_FACTOR) return null;
+
+        var present = new boolean[(int) range];
+        for (Object value : counts.keySet()) {
+            present[(int) ((Integer) value - min)] = true;
+        }
+        var result = new ArrayList<T>(counts.size());
+        for (int i = 0; i < range; i++) {
+            var index = sortDirection == SortDirection.DESCENDING ? (int) range - 1 - i : i;
+            if (present[index]) result.add((T) Integer.valueOf((int) (min + index)));
+        }
+        return result.toArray((T[]) Array.newInstance(Integer.class, result.size()));
+    }
+
+    /**
+     * Метод, переносящий собранные значения в обычную серию.
+     */
+    private void switchToFallback() {
+        fallback = fallbackFactory.get();
+        for (Map.Entry<Object, long[]> entry : counts.entrySet()) {
+            var bytes = byteCursor
+                    ? ((ByteKey) entry.getKey()).bytes
+                    : String.valueOf(entry.getKey()).getBytes(StandardCharsets.UTF_8);
+            for (long i = 0; i < entry.getValue()[0]; i++) {
+                fallback.add(bytes, 0, bytes.length);
+            }
+        }
+        counts = null;
+        sortedCounts = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private RunFormat<T> getRunFormat() {
+        return (RunFormat<T>) filesMergeSort.getDataType().getRunFormat();
+    }
+
+    /**
+     * Курсор по различным значениям серии, сравниваемым как объекты.
+     */
+    private class ValueCursor implements ObjectCursor<T> {
+        /**
+         * Номер текущего значения.
+         */
+        private int position;
+
+        @Override
+        public boolean hasHead() {
+            return position < sortedValues.length;
+        }
+
+        @Override
+        public T head() {
+            return sortedValues[position];
+        }
+
+        @Override
+        public long headCount() {
+            return sortedCounts[position];
+        }
+
+        @Override
+        public void advance() {
+            position++;
+        }
+
+        @Override
+        public void writeHead(OutputStream output) throws IOException {
+            output.write(String.valueOf(head()).getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void writeHeadRecord(RunWriter writer, long count) throws IOException {
+            getRunFormat().write(head(), count, writer);
+        }
+    }
+
+    /**
+     * Курсор по различным значениям серии, сравниваемым побайтово. Значения читаются курсором
+     * отсортированной обычной серии, количества - из sortedCounts.
+     */
+    private class KeyCursor implements ByteCursor {
+        /**
+         * Курсор отсортированной серии различных значений.
+         */
+        private final ByteCursor keys = (ByteCursor) sortedKeys.cursor();
+        /**
+         * Номер текущего значения.
+         */
+        private int position;
+
+        @Override
+        public boolean hasHead() {
+            return keys.hasHead();
+        }
+
+        @Override
+        public long headCount() {
+            return sortedCounts[position];
+        }
+
+        @Override
+        public void advance() throws IOException {
+            keys.advance();
+            position++;
+        }
+
+        @Override
+        public void writeHead(OutputStream output) throws IOException {
+            keys.writeHead(output);
+        }
+
+        @Override
+        public ByteBuffer headBuffer() {
+            return keys.headBuffer();
+        }
+
+        @Override
+        public int headOffset() {
+            return keys.headOffset();
+        }
+
+        @Override
+        public int headLength() {
+            return keys.headLength();
+        }
+    }
+
+    /**
+     * Байты значения как ключ словаря. Ключ для поиска ссылается на чужой массив, ключ в словаре -
+     * на собственную копию байтов.
+     */
+    private static class ByteKey {
+        /**
+         * Массив, содержащий байты значения.
+         */
+        private byte[] bytes;
+        /**
+         * Смещение значения в массиве.
+         */
+        private int offset;
+        /**
+         * Длина значения.
+         */
+        private int length;
+        /**
+         * Хэш байтов значения.
+         */
+        private int hash;
+
+        /**
+         * Метод, настраивающий ключ на байты значения.
+         *
+         * @param bytes  массив, содержащий значение.
+         * @param offset смещение значения в массиве.
+         * @param length длина значения.
+         * @return этот ключ.
+         */
+        private ByteKey set(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+            var result = 1;
+            for (int i = offset; i < offset + length; i++) {
+                result = 31 * result + bytes[i];
+            }
+            this.hash = result;
+            return this;
+        }
+
+        /**
+         * Метод, создающий ключ с собственной копией байтов, смещение которой равно 0.
+         *
+         * @return копия ключа.
+         */
+        private ByteKey copy() {
+            var copy = new ByteKey();
+            copy.bytes = Arrays.copyOfRange(bytes, offset, offset + length);
+            copy.length = length;
+            copy.hash = hash;
+            return copy;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof ByteKey key && Arrays.equals(bytes, offset, offset + length,
+                    key.bytes, key.offset, key.offset + key.length);
+        }
+    }
+}
@@ -2,14 +2,37 @@ package com.barievumar.projects.cft.sort;
 
 import com.barievumar.projects.cft.enums.DataType;
 import com.barievumar.projects.cft.enums.SortDirection;
+import com.barievumar.projects.cft.io.BlockIo;
+import com.barievumar.projects.cft.io.FileSnapshot;
+import com.barievumar.projects.cft.io.LineReader;
+import com.barievumar.projects.cft.runs.ByteCursor;
+import com.barievumar.projects.cft.runs.ByteFileCursor;
+import com.barievumar.projects.cft.runs.ByteRecordFormat;
+import com.barievumar.projects.cft.runs.ByteRun;
+import com.barievumar.projects.cft.runs.DelimitedRecordFormat;
+import com.barievumar.projects.cft.runs.MergePlan;
+import com.barievumar.projects.cft.runs.ObjectCursor;
+import com.barievumar.projects.cft.runs.ObjectFileCursor;
+import com.barievumar.projects.cft.runs.RunBuffer;
+import com.barievumar.projects.cft.runs.RunCache;
+import com.barievumar.projects.cft.runs.RunCursor;
+import com.barievumar.projects.cft.runs.RunFile;
+import com.barievumar.projects.cft.runs.RunFormat;
+import com.barievumar.projects.cft.runs.RunMerger;
+import com.barievumar.projects.cft.runs.RunWriter;
+import com.barievumar.projects.cft.runs.Utf8RecordFormat;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 /**
@@ -40,6 +63,10 @@ public class FilesMergeSort<T> {
         this.dataType = dataType;
     }
 
+    public DataType getDataType() {
+        return dataType;
+    }
+
     /**
      * Метод, выполняющий сортировку слиянием нескольких файлов.
      *
@@ -62,6 +89,373 @@ public class FilesMergeSort<T> {
         return resultFiles;
     }
 
+    /**
+     * Метод, выполняющий внешнюю сортировку слиянием нескольких файлов и запись результата в выходной файл.
+     * Значения каждого файла собираются в отсортированные серии в пределах бюджета памяти, серии, не поместившиеся
+     * в бюджет, сбрасываются во временные файлы. Затем серии сливаются по плану MergePlan: не больше --max-fan-in
+     * серий за шаг, начиная с самых маленьких, последний шаг пишет прямо в выходной файл.
+     * В режиме записей сортируются строки файлов целиком, по столбцу-ключу типа dataType.
+     * С --parallel большие файлы читаются по частям в нескольких потоках, каждая часть становится отдельной серией.
+     * С --cache отсортированная серия каждого файла сохраняется в кэш, и неизмененные файлы больше не читаются.
+     *
+     * @param sortDirection направление сортировки.
+     * @param options       дополнительные параметры сортировки.
+     * @param outputFile    путь к выходному файлу.
+     * @param files         пути к файлам, которые будут объеденены и отсортированы.
+     * @see SortOptions
+     * @see MemoryBudget
+     * @see MergePlan
+     * @see ChunkedFileReader
+     * @see RunCache
+     */
+    public void sortAndWrite(SortDirection sortDirection, SortOptions options, Path outputFile, Path... files)
+            throws IOException {
+        var byteFormat = createByteRecordFormat(options);
+        Supplier<RunBuffer> runFactory = byteFormat == null
+                ? () -> new HeapRun<>(this)
+                : () -> new ByteRun(byteFormat, options.isOffHeap());
+        // значения, в отличие от записей, можно хранить с количествами
+        Supplier<RunBuffer> bufferFactory = options.isRecordMode()
+                ? runFactory
+                : () -> new CountingRun<>(this, runFactory, byteFormat != null);
+        if (options.isRecordMode() && options.isUnique()) {
+            logger.warning("Option --unique is not supported for records and will be ignored.");
+        }
+
+        try (var budget = MemoryBudget.forJob(files.length, options);
+             var runs = new RunCollector(bufferFactory, sortDirection, budget);
+             var chunkedReader = options.getParseThreads() > 1
+                     ? new ChunkedFileReader(options.getParseThreads(), bufferFactory, sortDirection, runs, budget)
+                     : null;
+             var cache = options.getCacheDirectory() != null
+                     ? new RunCache(options.getCacheDirectory(), options.getCacheBytes())
+                     : null) {
+            var formatId = getCacheFormatId(options);
+            for (int input = 0; input < files.length; input++) {
+                var file = files[input];
+                var cachedRun = cache != null ? cache.lookup(file, dataType, sortDirection, formatId) : null;
+                if (cachedRun != null) {
+                    logger.info("Using cached run " + cachedRun + " for file " + file);
+                    runs.addFileRun(cachedRun);
+                    runs.finishInput();
+                    continue;
+                }
+
+                logger.info("Reading file " + file);
+                // размер и время изменения фиксируются до чтения, а хэш содержимого считается во время чтения
+                var snapshot = cache != null ? FileSnapshot.capture(file) : null;
+                if (chunkedReader == null
+                        || !chunkedReader.read(file, () -> createLineParser(file, byteFormat, options), snapshot)) {
+                    readFile(file, createLineParser(file, byteFormat, options), runs::add, snapshot);
+                }
+                runs.finishInput();
+                if (cache != null) {
+                    cacheInput(cache, runs, input, snapshot, sortDirection, byteFormat, options, budget.getBlockIo());
+                }
+            }
+            mergeRuns(runs, sortDirection, byteFormat, outputFile, options, budget.getBlockIo());
+            logger.info("Run I/O: " + budget.getBlockIo());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Метод, возвращающий описание формата записей серий для ключа кэша. Строки вне кучи сравниваются
+     * как байты UTF-8, а в куче - как символы UTF-16, поэтому их серии хранятся в разных записях.
+     *
+     * @param options дополнительные параметры сортировки.
+     * @return описание формата записей.
+     */
+    private String getCacheFormatId(SortOptions options) {
+        if (!options.isRecordMode()) {
+            return options.isOffHeap() && dataType == DataType.STRING ? "values off-heap" : "values";
+        }
+        return "records key=" + options.getKeyColumn() + " delimiter=" + (options.getDelimiter() & 0xFF);
+    }
+
+    /**
+     * Метод, сохраняющий серии входного файла в кэш одной серией. Если файл уместился в одну серию в памяти,
+     * она записывается в кэш и остается в памяти, иначе серии файла сливаются в кэш и заменяются серией из кэша.
+     * Файлы, сброшенные на диск больше чем max-fan-in сериями, не кэшируются. Ошибки кэша не прерывают сортировку.
+     *
+     * @param cache         кэш серий.
+     * @param runs          серии в памяти и во временных файлах.
+     * @param input         номер входного файла.
+     * @param snapshot      снимок входного файла, сделанный при чтении.
+     * @param sortDirection направление сортировки.
+     * @param byteFormat    формат записей, если серии хранят значения в виде байтов, иначе null.
+     * @param options       дополнительные параметры сортировки.
+     * @param io            параметры блочного ввода-вывода.
+     */
+    private void cacheInput(RunCache cache, RunCollector runs, int input, FileSnapshot snapshot,
+                            SortDirection sortDirection, ByteRecordFormat byteFormat, SortOptions options, BlockIo io)
+            throws IOException {
+        var memoryRuns = runs.getInputMemoryRuns(input);
+        var fileRuns = runs.getInputFileRuns(input);
+        if (memoryRuns.isEmpty() && fileRuns.isEmpty()) return;
+        if (fileRuns.size() > options.getMaxFanIn()) {
+            // буферы ввода-вывода рассчитаны на слияние не больше max-fan-in файлов за шаг
+            logger.info("File " + snapshot.getPath() + " has " + fileRuns.size() + " spilled runs, more than "
+                    + "--max-fan-in " + options.getMaxFanIn() + ", its run will not be cached");
+            return;
+        }
+        var singleMemoryRun = memoryRuns.size() == 1 && fileRuns.isEmpty();
+
+        RunFile run;
+        var path = cache.createTempFile();
+        try (var writer = new RunWriter(path, io)) {
+            if (singleMemoryRun) {
+                memoryRuns.get(0).writeTo(writer);
+            } else {
+                // серии файла сливаются в порядке строк, чтобы записи с равными ключами не переставлялись
+                var inputRuns = new ArrayList<Object>(memoryRuns);
+                inputRuns.addAll(fileRuns);
+                inputRuns.sort(Comparator.comparingLong(runs::getOrder));
+                var cursors = new ArrayList<RunCursor>();
+                try {
+                    for (Object inputRun : inputRuns) {
+                        cursors.add(inputRun instanceof RunBuffer buffer
+                                ? buffer.cursor()
+                                : openFileCursor((RunFile) inputRun, byteFormat, io));
+                    }
+                    new RunMerger<>(createCursorComparator(sortDirection, byteFormat), !options.isRecordMode(), false)
+                            .mergeInto(cursors, writer);
+                } finally {
+                    for (RunCursor cursor : cursors) {
+                        cursor.close();
+                    }
+                }
+            }
+            run = new RunFile(path, writer.getRecords(), writer.getBytes());
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+
+        var storedRun = run;
+        try {
+            storedRun = cache.store(snapshot, dataType, sortDirection, getCacheFormatId(options), run);
+        } catch (IOException e) {
+            logger.warning("Cannot cache run of file " + snapshot.getPath() + ": " + e.getMessage());
+        }
+        if (!singleMemoryRun) {
+            runs.replaceInputRuns(input, storedRun);
+        } else {
+            // серия осталась в памяти, временный файл, не попавший в кэш, не нужен
+            storedRun.delete();
+        }
+    }
+
+    /**
+     * Метод, выбирающий формат записей, сравниваемых побайтово.
+     *
+     * @param options дополнительные параметры сортировки.
+     * @return формат записей, или null, если значения хранятся в куче в виде объектов.
+     */
+    private ByteRecordFormat createByteRecordFormat(SortOptions options) {
+        if (options.isRecordMode()) {
+            return new DelimitedRecordFormat(dataType, options.getKeyColumn(), options.getDelimiter());
+        }
+        if (options.isOffHeap()) {
+            if (dataType == DataType.STRING) return new Utf8RecordFormat();
+            logger.warning("Off-heap storage is supported only for " + DataType.STRING
+                    + " values and records. Values of type " + dataType + " will be stored in the heap.");
+        }
+        return null;
+    }
+
+    /**
+     * Метод, выполняющий слияние всех серий по плану MergePlan и запись значений в выходной файл.
+     * Промежуточные шаги пишут серии во временные файлы, которые удаляются сразу после слияния.
+     *
+     * @param runs          серии в памяти и во временных файлах.
+     * @param sortDirection направление сортировки.
+     * @param byteFormat    формат записей, если серии хранят значения в виде байтов, иначе null.
+     * @param outputFile    путь к выходному файлу.
+     * @param options       дополнительные параметры сортировки.
+     * @param io            параметры блочного ввода-вывода.
+     */
+    private void mergeRuns(RunCollector runs, SortDirection sortDirection, ByteRecordFormat byteFormat,
+                           Path outputFile, SortOptions options, BlockIo io) throws IOException {
+        // серии нумеруются так же, как в плане, в порядке входных данных: записи с равными ключами
+        // сливаются в порядке входных файлов и строк, если план сливает только соседние серии
+        var originalRuns = new ArrayList<Object>(runs.getMemoryRuns());
+        originalRuns.addAll(runs.getFileRuns());
+        originalRuns.sort(Comparator.comparingLong(runs::getOrder));
+        var planRuns = new ArrayList<>(originalRuns);
+        var sizes = new long[planRuns.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            var run = planRuns.get(i);
+            sizes[i] = run instanceof RunBuffer buffer ? buffer.byteSize() : ((RunFile) run).getBytes();
+        }
+
+        var plan = MergePlan.create(sizes, options.getMaxFanIn(), options.isRecordMode());
+        logger.info(plan.toString());
+
+        // равные значения объединяются с суммой количеств, равные ключи разных записей - нет
+        var merger = new RunMerger<>(createCursorComparator(sortDirection, byteFormat),
+                !options.isRecordMode(), options.isUnique() && !options.isRecordMode());
+        var steps = plan.getSteps();
+        try {
+            for (int i = 0; i < steps.size(); i++) {
+                var step = steps.get(i);
+                var cursors = new ArrayList<RunCursor>();
+                try {
+                    for (int input : step.getInputs()) {
+                        cursors.add(planRuns.get(input) instanceof RunBuffer buffer
+                                ? buffer.cursor()
+                                : openFileCursor((RunFile) planRuns.get(input), byteFormat, io));
+                    }
+                    if (i == steps.size() - 1) {
+                        try (var output = io.newOutputStream(outputFile)) {
+                            merger.mergeInto(cursors, output);
+                        }
+                    } else {
+                        planRuns.add(mergeIntoRunFile(merger, cursors, io));
+                    }
+                } finally {
+                    for (RunCursor cursor : cursors) {
+                        cursor.close();
+                    }
+                }
+                for (int input : step.getInputs()) {
+                    if (planRuns.get(input) instanceof RunFile fileRun) fileRun.delete();
+                }
+            }
+        } finally {
+            // удаляем промежуточные серии, оставшиеся после ошибки, исходные удалит RunCollector
+            for (int i = originalRuns.size(); i < planRuns.size(); i++) {
+                ((RunFile) planRuns.get(i)).delete();
+            }
+        }
+    }
+
+    /**
+     * Метод, выполняющий промежуточный шаг слияния во временный файл.
+     *
+     * @param merger     алгоритм слияния.
+     * @param cursors    курсоры сливаемых серий.
+     * @param io         параметры блочного ввода-вывода.
+     * @return серия во временном файле.
+     */
+    private RunFile mergeIntoRunFile(RunMerger<RunCursor> merger, List<RunCursor> cursors, BlockIo io)
+            throws IOException {
+        var path = RunFile.createTempFile();
+        try (var writer = new RunWriter(path, io)) {
+            merger.mergeInto(cursors, writer);
+            var runFile = new RunFile(path, writer.getRecords(), writer.getBytes());
+            logger.info("Merged " + cursors.size() + " runs into " + runFile);
+            return runFile;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+    }
+
+    /**
+     * Метод, открывающий курсор по серии во временном файле.
+     *
+     * @param run        серия во временном файле.
+     * @param byteFormat формат записей, если записи серии сравниваются побайтово, иначе null.
+     * @param io         параметры блочного чтения.
+     * @return курсор.
+     */
+    @SuppressWarnings("unchecked")
+    private RunCursor openFileCursor(RunFile run, ByteRecordFormat byteFormat, BlockIo io) throws IOException {
+        if (byteFormat != null) return new ByteFileCursor(run.open(io), byteFormat);
+        return new ObjectFileCursor<>(run.open(io), (RunFormat<T>) dataType.getRunFormat());
+    }
+
+    /**
+     * Метод, создающий правило сравнения голов серий с учетом направления сортировки.
+     *
+     * @param sortDirection направление сортировки.
+     * @param byteFormat    формат записей, если головы серий сравниваются побайтово, иначе null.
+     * @return правило сравнения.
+     */
+    @SuppressWarnings("unchecked")
+    private Comparator<RunCursor> createCursorComparator(SortDirection sortDirection, ByteRecordFormat byteFormat) {
+        Comparator<RunCursor> comparator = byteFormat != null
+                ? (first, second) -> byteFormat.compareHeads((ByteCursor) first, (ByteCursor) second)
+                : (first, second) -> compare(((ObjectCursor<T>) first).head(), ((ObjectCursor<T>) second).head());
+        return sortDirection == SortDirection.DESCENDING ? comparator.reversed() : comparator;
+    }
+
+    /**
+     * Метод, читающий строки файла в одном потоке.
+     *
+     * @param filePath путь к файлу.
+     * @param parser   разборщик строк.
+     * @param consumer получатель значений.
+     * @param snapshot снимок файла, в который добавляется хэш содержимого, или null.
+     */
+    private void readFile(Path filePath, LineParser parser, LineParser.ValueConsumer consumer, FileSnapshot snapshot)
+            throws IOException {
+        LineParser.Warnings warnings = (lineNumber, message) -> logger.warning(message.apply(lineNumber));
+        var input = Files.newInputStream(filePath);
+        if (snapshot != null) input = snapshot.hashing(input, 0);
+        try (var reader = new LineReader(input, LineReader.DEFAULT_BUFFER_SIZE)) {
+            long lineNumber = 0;
+            while (reader.nextLine()) {
+                parser.parse(reader.getLine(), reader.getLineLength(), ++lineNumber, consumer, warnings);
+            }
+        }
+    }
+
+    /**
+     * Метод, создающий разборщик строк файла. В режиме записей строка - одна запись, иначе строка
+     * разбирается так же, как в getAllValuesFromFile.
+     *
+     * @param filePath   путь к файлу, для предупреждений.
+     * @param byteFormat формат записей.
+     * @param options    дополнительные параметры сортировки.
+     * @return новый разборщик строк.
+     */
+    private LineParser createLineParser(Path filePath, ByteRecordFormat byteFormat, SortOptions options) {
+        if (options.isRecordMode()) return new RecordLineParser(filePath, (DelimitedRecordFormat) byteFormat);
+        return (line, length, lineNumber, consumer, warnings) ->
+                parseValues(filePath, line, length, lineNumber, consumer, warnings);
+    }
+
+    /**
+     * Метод, выделяющий значения из строки файла в виде UTF-8 байтов. Обработка строк совпадает
+     * с getAllValuesFromFile: пробелы по краям строки удаляются, несколько значений в строке
+     * рассматриваются по отдельности, недопустимые значения пропускаются.
+     *
+     * @param filePath   путь к файлу, для предупреждений.
+     * @param line       массив, содержащий строку.
+     * @param length     длина строки.
+     * @param lineNumber номер строки.
+     * @param consumer   получатель значений.
+     * @param warnings   получатель предупреждений.
+     */
+    private void parseValues(Path filePath, byte[] line, int length, long lineNumber,
+                             LineParser.ValueConsumer consumer, LineParser.Warnings warnings) {
+        var start = 0;
+        var end = length;
+        while (start < end && (line[start] & 0xFF) <= ' ') start++;
+        while (end > start && (line[end - 1] & 0xFF) <= ' ') end--;
+
+        var valueStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i < end && line[i] != ' ') continue;
+            if (valueStart == start && i < end) {
+                var text = new String(line, start, end - start, StandardCharsets.UTF_8);
+                warnings.warn(lineNumber, number -> "Line " + number + " in file " + filePath
+                        + " contains few values. They will be separated: " + text);
+            }
+            try {
+                consumer.accept(line, valueStart, i - valueStart);
+            } catch (NumberFormatException e) {
+                var value = new String(line, valueStart, i - valueStart, StandardCharsets.UTF_8);
+                warnings.warn(lineNumber, number -> "Error in line number " + number + " in file " + filePath
+                        + ". Value '" + value + "' Cannot be parsed into " + dataType + ". This value will be skipped.");
+            }
+            valueStart = i + 1;
+        }
+    }
+
     /**
      * Метод, выполняющий сортировку одного файла. В случае, если файл
      * уже отсортирован, возвращает значения из файла.
@@ -152,6 +546,25 @@ public class FilesMergeSort<T> {
         return List.of(resultAsArray);
     }
 
+    /**
+     * Метод, выполняющий сортировку значений из переданного списка. Если значения уже отсортированы,
+     * сортировка не выполняется.
+     *
+     * @param values        список значений.
+     * @param sortDirection направление сортировки.
+     * @return отсортированный массив.
+     */
+    T[] sortAsArray(List<T> values, SortDirection sortDirection) {
+        var valuesAsArr = createAndFillArr(values);
+        for (int i = 0; i < valuesAsArr.length - 1; i++) {
+            var result = compare(valuesAsArr[i], valuesAsArr[i + 1]);
+            if (sortDirection.equals(SortDirection.DESCENDING) ? result < 0 : result > 0) {
+                return mergeSortAsArray(valuesAsArr, sortDirection);
+            }
+        }
+        return valuesAsArr;
+    }
+
     /**
      * Метод, выполняющий сортировку слиянием значений из переданного массива.
      *
@@ -268,7 +681,7 @@ public class FilesMergeSort<T> {
      * 0, если элементы равны,
      * 1, если первый элемент больше.
      */
-    private int compare(T val1, T val2) {
+    int compare(T val1, T val2) {
         int result = 0;
         try {
             result = ((Comparable) val1).compareTo(val2);
@@ -284,7 +697,7 @@ public class FilesMergeSort<T> {
      * @param str исходная строка.
      * @return значние - результат парсинга.
      */
-    private T parseValue(String str) {
+    T parseValue(String str) {
         T result = null;
         try {
             result = (T) dataType.getParser().parse(str);
@@ -293,4 +706,43 @@ public class FilesMergeSort<T> {
         }
         return result;
     }
+
+    /**
+     * Разборщик строк в режиме записей: строка сохраняется целиком, а сортируется по столбцу-ключу.
+     * Если в строке нет столбца-ключа или ключ не соответствует типу данных, строка пропускается.
+     */
+    private class RecordLineParser implements LineParser {
+        /**
+         * Путь к файлу, для предупреждений.
+         */
+        private final Path filePath;
+        /**
+         * Формат записей.
+         */
+        private final DelimitedRecordFormat format;
+        /**
+         * Буфер записи.
+         */
+        private byte[] record = new byte[256];
+
+        private RecordLineParser(Path filePath, DelimitedRecordFormat format) {
+            this.filePath = filePath;
+            this.format = format;
+        }
+
+        @Override
+        public void parse(byte[] line, int length, long lineNumber, ValueConsumer consumer, Warnings warnings) {
+            if (record.length < DelimitedRecordFormat.HEADER_SIZE + length) {
+                record = new byte[Math.max(record.length * 2, DelimitedRecordFormat.HEADER_SIZE + length)];
+            }
+            try {
+                var recordLength = format.encode(line, length, record);
+                consumer.accept(record, 0, recordLength);
+            } catch (IllegalArgumentException e) {
+                var text = new String(line, 0, length, StandardCharsets.UTF_8);
+                warnings.warn(lineNumber, number -> "Error in line number " + number + " in file " + filePath + ". "
+                        + e.getMessage() + " (key type " + dataType + "). This line will be skipped: " + text);
+            }
+        }
+    }
 }
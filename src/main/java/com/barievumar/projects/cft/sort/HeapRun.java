@@ -0,0 +1,146 @@
+package com.barievumar.projects.cft.sort;
+
+import com.barievumar.projects.cft.enums.SortDirection;
+import com.barievumar.projects.cft.runs.ObjectCursor;
+import com.barievumar.projects.cft.runs.RunBuffer;
+import com.barievumar.projects.cft.runs.RunFormat;
+import com.barievumar.projects.cft.runs.RunWriter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Серия в куче: значения хранятся объектами и сортируются алгоритмом FilesMergeSort.
+ *
+ * @param <T> тип значений.
+ */
+class HeapRun<T> implements RunBuffer {
+    /**
+     * Оценка памяти на одно значение: объект, ссылка в списке и ссылки в копиях при сортировке.
+     */
+    private static final int VALUE_OVERHEAD = 48;
+
+    /**
+     * Алгоритм, выполняющий парсинг, сравнение и сортировку значений.
+     */
+    private final FilesMergeSort<T> filesMergeSort;
+    /**
+     * Значения серии.
+     */
+    private final List<T> values = new ArrayList<>();
+    /**
+     * Оценка занимаемой памяти.
+     */
+    private long byteSize;
+    /**
+     * Отсортированные значения, null если серия не отсортирована.
+     */
+    private T[] sortedValues;
+
+    /**
+     * Конструктор
+     *
+     * @param filesMergeSort алгоритм, выполняющий парсинг, сравнение и сортировку значений.
+     */
+    HeapRun(FilesMergeSort<T> filesMergeSort) {
+        this.filesMergeSort = filesMergeSort;
+    }
+
+    @Override
+    public void add(byte[] bytes, int offset, int length) {
+        values.add(filesMergeSort.parseValue(new String(bytes, offset, length, StandardCharsets.UTF_8)));
+        // строки занимают до двух байтов на символ, числа - только сам объект
+        byteSize += VALUE_OVERHEAD + (filesMergeSort.getDataType().getaClass() == String.class ? length * 2L : 0);
+        sortedValues = null;
+    }
+
+    @Override
+    public int size() {
+        return sortedValues != null ? sortedValues.length : values.size();
+    }
+
+    @Override
+    public long byteSize() {
+        return byteSize;
+    }
+
+    @Override
+    public void sort(SortDirection sortDirection) {
+        sortedValues = filesMergeSort.sortAsArray(values, sortDirection);
+        values.clear();
+    }
+
+    @Override
+    public ObjectCursor<T> cursor() {
+        if (sortedValues == null) throw new IllegalStateException("Run must be sorted before reading");
+        return new Cursor();
+    }
+
+    @Override
+    public void writeTo(RunWriter writer) throws IOException {
+        if (sortedValues == null) throw new IllegalStateException("Run must be sorted before writing");
+        @SuppressWarnings("unchecked")
+        var format = (RunFormat<T>) filesMergeSort.getDataType().getRunFormat();
+        for (int i = 0; i < sortedValues.length; ) {
+            var count = countEqual(i);
+            format.write(sortedValues[i], count, writer);
+            i += count;
+        }
+    }
+
+    /**
+     * Метод, считающий равные значения подряд, начиная с заданного, в отсортированном порядке.
+     *
+     * @param position номер значения в отсортированном порядке.
+     * @return количество равных значений, не меньше 1.
+     */
+    private int countEqual(int position) {
+        var end = position + 1;
+        while (end < sortedValues.length && filesMergeSort.compare(sortedValues[position], sortedValues[end]) == 0) end++;
+        return end - position;
+    }
+
+    /**
+     * Курсор по отсортированной серии. Равные значения подряд возвращаются одним значением с количеством.
+     */
+    private class Cursor implements ObjectCursor<T> {
+        /**
+         * Номер текущего значения.
+         */
+        private int position;
+        /**
+         * Количество равных значений, начиная с текущего, 0 если еще не посчитано.
+         */
+        private int headCount;
+
+        @Override
+        public boolean hasHead() {
+            return position < sortedValues.length;
+        }
+
+        @Override
+        public T head() {
+            return sortedValues[position];
+        }
+
+        @Override
+        public long headCount() {
+            if (headCount == 0) headCount = countEqual(position);
+            return headCount;
+        }
+
+        @Override
+        public void advance() {
+            position += headCount();
+            headCount = 0;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void writeHeadRecord(RunWriter writer, long count) throws IOException {
+            ((RunFormat<T>) filesMergeSort.getDataType().getRunFormat()).write(sortedValues[position], count, writer);
+        }
+    }
+}
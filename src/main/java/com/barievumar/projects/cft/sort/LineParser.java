@@ -0,0 +1,51 @@
+package com.barievumar.projects.cft.sort;
+
+import java.util.function.LongFunction;
+
+/**
+ * Разборщик строк входного файла: выделяет из строки значения или записи и передает их получателю.
+ * Разборщик может хранить вспомогательные буферы, поэтому каждому потоку нужен свой экземпляр.
+ */
+@FunctionalInterface
+interface LineParser {
+    /**
+     * Метод, разбирающий одну строку.
+     *
+     * @param line       массив, содержащий строку в UTF-8, без перевода строки.
+     * @param length     длина строки.
+     * @param lineNumber номер строки в файле или в части файла, начиная с 1.
+     * @param consumer   получатель значений.
+     * @param warnings   получатель предупреждений о недопустимых значениях.
+     */
+    void parse(byte[] line, int length, long lineNumber, ValueConsumer consumer, Warnings warnings);
+
+    /**
+     * Получатель значений, прочитанных из файла в виде байтов.
+     */
+    @FunctionalInterface
+    interface ValueConsumer {
+        /**
+         * Метод, принимающий значение.
+         *
+         * @param bytes  массив, содержащий значение в UTF-8.
+         * @param offset смещение значения в массиве.
+         * @param length длина значения в байтах.
+         */
+        void accept(byte[] bytes, int offset, int length);
+    }
+
+    /**
+     * Получатель предупреждений. Текст предупреждения строится по номеру строки, чтобы при параллельном чтении
+     * номер строки в части файла можно было заменить номером строки в файле.
+     */
+    @FunctionalInterface
+    interface Warnings {
+        /**
+         * Метод, принимающий предупреждение.
+         *
+         * @param lineNumber номер строки, к которой относится предупреждение.
+         * @param message    функция, строящая текст предупреждения по номеру строки в файле.
+         */
+        void warn(long lineNumber, LongFunction<String> message);
+    }
+}
@@ -0,0 +1,420 @@
+package com.barievumar.projects.cft.sort;
+
+import com.barievumar.projects.cft.io.BlockIo;
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Бюджет памяти одного задания сортировки. Размер серий в памяти и буферов ввода-вывода
+ * рассчитывается по Runtime.maxMemory(), количеству входных файлов, максимальному количеству серий, сливаемых
+ * за один шаг, количеству буферов на файл и количеству одновременно выполняемых заданий. Во время работы бюджет
+ * следит за заполнением кучи после сборки мусора и активностью сборщика и уменьшается, если памяти становится мало,
+ * чтобы серии сбрасывались на диск раньше, чем возникнет OutOfMemoryError. Когда после очередной сборки памяти
+ * снова достаточно, бюджет восстанавливается. Доля кучи пересчитывается при каждой проверке, поэтому с началом
+ * новых заданий бюджеты выполняющихся заданий уменьшаются, а после их завершения - снова растут.
+ * <p>
+ * Серии вне кучи (--off-heap) хранятся в direct ByteBuffer, которые не видны в занятости кучи, а буферы,
+ * оставшиеся после увеличения серии, освобождаются только после сборки мусора. Поэтому размер таких серий
+ * ограничен и долей direct памяти, а бюджет следит за ее занятостью, чтобы серии сбрасывались на диск раньше,
+ * чем возникнет OutOfMemoryError: Direct buffer memory.
+ */
+public class MemoryBudget implements AutoCloseable {
+    /**
+     * Логгер.
+     */
+    public static Logger logger = Logger.getGlobal();
+
+    /**
+     * Доля кучи, которую могут занимать серии всех заданий.
+     */
+    private static final double HEAP_FRACTION = 0.5;
+    /**
+     * Доля direct памяти, которую могут занимать серии вне кучи всех заданий. Буфер серии растет удвоением,
+     * и пока данные копируются, старый и новый буферы занимают втрое больше памяти, чем старый.
+     */
+    private static final double DIRECT_FRACTION = 0.25;
+    /**
+     * Заполнение кучи, начиная с которого памяти считается мало.
+     */
+    private static final double TIGHT_HEAP_USAGE = 0.85;
+    /**
+     * Заполнение кучи, начиная с которого учитывается активность сборщика мусора.
+     */
+    private static final double BUSY_HEAP_USAGE = 0.6;
+    /**
+     * Заполнение кучи, ниже которого уменьшенный бюджет серий восстанавливается.
+     */
+    private static final double RELAXED_HEAP_USAGE = 0.5;
+    /**
+     * Доля времени, проведенного в сборке мусора, начиная с которой памяти считается мало.
+     */
+    private static final double TIGHT_GC_RATIO = 0.25;
+    /**
+     * Минимальный интервал между проверками состояния памяти.
+     */
+    private static final long CHECK_INTERVAL_NANOS = 50_000_000L;
+
+    /**
+     * Минимальный размер серий в памяти при автоматическом расчете.
+     */
+    private static final long MIN_RUN_BYTES = 1L << 20;
+    /**
+     * Максимальный размер серий в памяти. Ограничен размером одного direct ByteBuffer.
+     */
+    private static final long MAX_RUN_BYTES = 1L << 30;
+    /**
+     * Минимальный размер буфера ввода-вывода.
+     */
+    private static final int MIN_IO_BUFFER_SIZE = 8 * 1024;
+    /**
+     * Максимальный размер буфера ввода-вывода.
+     */
+    private static final int MAX_IO_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Количество заданий, выполняемых одновременно.
+     */
+    private static final AtomicInteger activeJobs = new AtomicInteger();
+
+    /**
+     * Информация о куче.
+     */
+    private final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+    /**
+     * Информация о сборщиках мусора.
+     */
+    private final List<GarbageCollectorMXBean> gcBeans = ManagementFactory.getGarbageCollectorMXBeans();
+    /**
+     * Области кучи, для которых известна занятость после сборки мусора.
+     */
+    private final List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans()
+            .stream()
+            .filter(pool -> pool.getType() == MemoryType.HEAP && pool.getCollectionUsage() != null)
+            .toList();
+
+    /**
+     * Информация о памяти direct ByteBuffer или null, если JVM ее не сообщает.
+     */
+    private final BufferPoolMXBean directPool = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)
+            .stream()
+            .filter(pool -> pool.getName().equals("direct"))
+            .findFirst()
+            .orElse(null);
+    /**
+     * Наибольший объем памяти direct ByteBuffer.
+     */
+    private final long maxDirectMemory = getMaxDirectMemory();
+
+    /**
+     * Размер серий, заданный --run-bytes, или 0, если бюджет рассчитывается по доле кучи.
+     */
+    private final long explicitRunBytes;
+    /**
+     * Память, зарезервированная под буферы ввода-вывода задания.
+     */
+    private final long ioBytes;
+    /**
+     * true, если серии хранятся вне кучи (--off-heap).
+     */
+    private final boolean offHeap;
+
+    /**
+     * Минимальный размер, до которого может уменьшаться бюджет серий.
+     */
+    private final long minRunBytes;
+    /**
+     * Буферы и статистика ввода-вывода задания.
+     */
+    private final BlockIo blockIo;
+    /**
+     * Объем памяти, который могут занимать серии задания. Читается потоками параллельного чтения.
+     */
+    private volatile long runBytes;
+
+    /**
+     * Суммарное время сборки мусора при последней проверке.
+     */
+    private long lastGcMillis;
+    /**
+     * Количество сборок мусора при последней проверке, занятость кучи после которой уже учтена.
+     */
+    private long lastGcCount;
+    /**
+     * Количество сборок мусора, когда direct памяти в последний раз оказалось мало.
+     */
+    private long lastDirectTightGcCount = -1;
+    /**
+     * Время последней проверки.
+     */
+    private long lastCheckNanos;
+
+    /**
+     * Конструктор
+     *
+     * @param minRunBytes      минимальный размер, до которого может уменьшаться бюджет серий.
+     * @param explicitRunBytes размер серий, заданный --run-bytes, или 0.
+     * @param ioBytes          память, зарезервированная под буферы ввода-вывода задания.
+     * @param offHeap          true, если серии хранятся вне кучи.
+     * @param blockIo          буферы и статистика ввода-вывода задания.
+     */
+    private MemoryBudget(long minRunBytes, long explicitRunBytes, long ioBytes, boolean offHeap, BlockIo blockIo) {
+        this.minRunBytes = minRunBytes;
+        this.explicitRunBytes = explicitRunBytes;
+        this.ioBytes = ioBytes;
+        this.offHeap = offHeap;
+        this.blockIo = blockIo;
+        this.runBytes = getMaxRunBytes();
+        this.lastGcMillis = getGcMillis();
+        this.lastGcCount = getGcCount();
+        this.lastCheckNanos = System.nanoTime();
+    }
+
+    /**
+     * Метод, рассчитывающий бюджет памяти для нового задания.
+     * Бюджет необходимо закрыть после завершения задания.
+     *
+     * @param inputs  количество входных файлов.
+     * @param options дополнительные параметры сортировки, --run-bytes задает размер серий явно,
+     *                --io-buffers и --io-buffer-size - количество и размер буферов ввода-вывода,
+     *                --max-fan-in - количество файлов серий, открытых одновременно.
+     * @return бюджет памяти задания.
+     */
+    public static MemoryBudget forJob(int inputs, SortOptions options) {
+        var jobs = activeJobs.incrementAndGet();
+        var maxMemory = Runtime.getRuntime().maxMemory();
+        var available = (long) (maxMemory * HEAP_FRACTION) / jobs;
+
+        // буферы нужны каждой серии, открытой при слиянии, и файлу, в который она сливается. Количество серий
+        // заранее неизвестно, но за один шаг сливается не больше max-fan-in серий, и не меньше, чем входных файлов
+        var streams = (long) Math.max(inputs, options.getMaxFanIn()) + 1;
+        var ioBuffers = options.getIoBuffers();
+        var ioBufferSize = options.getIoBufferSize() > 0
+                ? options.getIoBufferSize()
+                : (int) clamp(available / 16 / streams / ioBuffers, MIN_IO_BUFFER_SIZE, MAX_IO_BUFFER_SIZE);
+        var blockIo = new BlockIo(ioBuffers, ioBufferSize);
+        var ioBytes = (long) ioBufferSize * ioBuffers * streams;
+        if (ioBytes > available) {
+            logger.warning("I/O buffers of " + streams + " files (" + toMegabytes(ioBytes) + " MB) exceed "
+                    + "the memory available to the job (" + toMegabytes(available) + " MB), "
+                    + "reduce --io-buffer-size or --max-fan-in");
+        }
+
+        var budget = options.getRunBytes() > 0
+                ? new MemoryBudget(options.getRunBytes(), options.getRunBytes(), ioBytes, options.isOffHeap(), blockIo)
+                : new MemoryBudget(MIN_RUN_BYTES, 0, ioBytes, options.isOffHeap(), blockIo);
+
+        logger.info("Memory budget: max heap " + toMegabytes(maxMemory) + " MB, active jobs " + jobs
+                + ", inputs " + inputs + ", run size " + budget.runBytes / 1024 + " KB"
+                + (options.getRunBytes() > 0 ? " (set by --run-bytes)" : "")
+                + ", I/O buffers " + ioBuffers + " x " + ioBufferSize / 1024 + " KB for up to " + streams + " files");
+        return budget;
+    }
+
+    /**
+     * Метод, возвращающий объем памяти, который могут занимать серии задания.
+     *
+     * @return объем памяти в байтах.
+     */
+    public long getRunBytes() {
+        return runBytes;
+    }
+
+    /**
+     * Метод, возвращающий буферы и статистику ввода-вывода задания.
+     *
+     * @return параметры блочного ввода-вывода.
+     */
+    public BlockIo getBlockIo() {
+        return blockIo;
+    }
+
+    /**
+     * Метод, проверяющий, не заканчивается ли память. Памяти считается мало, если куча почти заполнена
+     * после сборки мусора, или если после сборки она заполнена больше чем наполовину и сборщик мусора занимает
+     * значительную долю времени, а также если почти заполнена direct память. Занятость кучи без сборки включает мусор, поэтому она не учитывается,
+     * и каждая сборка мусора учитывается один раз. Если после сборки памяти достаточно, уменьшенный бюджет
+     * восстанавливается. Бюджет также ограничивается долей кучи при текущем количестве заданий, поэтому
+     * уже выполняющиеся задания уступают память новым. Проверка выполняется не чаще, чем раз в CHECK_INTERVAL_NANOS.
+     *
+     * @return true, если памяти мало и серии нужно сбросить на диск.
+     */
+    public boolean isMemoryTight() {
+        var now = System.nanoTime();
+        var elapsedNanos = now - lastCheckNanos;
+        if (elapsedNanos < CHECK_INTERVAL_NANOS) return false;
+
+        // доля кучи пересчитывается по текущему количеству заданий, чтобы новые задания не выходили за кучу
+        var maxRunBytes = getMaxRunBytes();
+        if (runBytes > maxRunBytes) {
+            runBytes = maxRunBytes;
+            logger.info("Run size is reduced to " + runBytes / 1024 + " KB, " + activeJobs.get()
+                    + " jobs share the heap");
+        }
+
+        var gcMillis = getGcMillis();
+        var gcRatio = (gcMillis - lastGcMillis) * 1_000_000.0 / elapsedNanos;
+        lastGcMillis = gcMillis;
+        lastCheckNanos = now;
+
+        // direct буферы почти не занимают кучу и сами по себе не вызывают сборку мусора, поэтому их занятость
+        // проверяется без нее. Сброшенные серии освобождаются только после сборки, поэтому между сборками
+        // нехватка direct памяти учитывается один раз
+        var gcCount = getGcCount();
+        var directUsage = offHeap ? getDirectUsage() : 0;
+        if (directUsage > TIGHT_HEAP_USAGE && gcCount != lastDirectTightGcCount) {
+            lastDirectTightGcCount = gcCount;
+            logger.warning(String.format("Memory is tight: direct memory usage %.0f%%", directUsage * 100));
+            return true;
+        }
+
+        // без новой сборки занятость кучи живыми объектами неизвестна, а после прошлой сборки серии уже сброшены
+        if (gcCount == lastGcCount) return false;
+        lastGcCount = gcCount;
+
+        var heap = memoryBean.getHeapMemoryUsage();
+        var maxHeap = heap.getMax() > 0 ? heap.getMax() : Runtime.getRuntime().maxMemory();
+        var heapUsage = (double) getHeapUsedAfterGc(heap.getUsed()) / maxHeap;
+
+        var tight = heapUsage > TIGHT_HEAP_USAGE || (heapUsage > BUSY_HEAP_USAGE && gcRatio > TIGHT_GC_RATIO);
+        if (tight) {
+            logger.warning(String.format("Memory is tight: heap usage after GC %.0f%%, GC time %.0f%%",
+                    heapUsage * 100, gcRatio * 100));
+        } else if (heapUsage < RELAXED_HEAP_USAGE) {
+            grow();
+        }
+        return tight;
+    }
+
+    /**
+     * Метод, уменьшающий бюджет серий вдвое, но не меньше минимального размера.
+     */
+    public void shrink() {
+        var newRunBytes = Math.max(minRunBytes, runBytes / 2);
+        if (newRunBytes < runBytes) {
+            runBytes = newRunBytes;
+            logger.warning("Run size is reduced to " + runBytes / 1024 + " KB");
+        }
+    }
+
+    /**
+     * Метод, увеличивающий уменьшенный бюджет серий вдвое, но не больше доли кучи задания.
+     */
+    private void grow() {
+        var newRunBytes = Math.min(getMaxRunBytes(), runBytes * 2);
+        if (newRunBytes > runBytes) {
+            runBytes = newRunBytes;
+            logger.info("Run size is restored to " + runBytes / 1024 + " KB");
+        }
+    }
+
+    /**
+     * Метод, возвращающий наибольший бюджет серий задания: размер, заданный --run-bytes, или долю кучи
+     * при текущем количестве заданий за вычетом буферов ввода-вывода. Серии вне кучи также ограничены
+     * долей direct памяти.
+     *
+     * @return объем памяти в байтах.
+     */
+    private long getMaxRunBytes() {
+        if (explicitRunBytes > 0) return explicitRunBytes;
+        var jobs = Math.max(1, activeJobs.get());
+        var available = (long) (Runtime.getRuntime().maxMemory() * HEAP_FRACTION) / jobs - ioBytes;
+        if (offHeap) available = Math.min(available, (long) (maxDirectMemory * DIRECT_FRACTION) / jobs);
+        return clamp(available, minRunBytes, MAX_RUN_BYTES);
+    }
+
+    /**
+     * Метод, освобождающий бюджет после завершения задания.
+     */
+    @Override
+    public void close() {
+        activeJobs.decrementAndGet();
+    }
+
+    /**
+     * Метод, возвращающий суммарное время работы всех сборщиков мусора.
+     *
+     * @return время в миллисекундах.
+     */
+    private long getGcMillis() {
+        long result = 0;
+        for (GarbageCollectorMXBean gcBean : gcBeans) {
+            result += Math.max(0, gcBean.getCollectionTime());
+        }
+        return result;
+    }
+
+    /**
+     * Метод, возвращающий суммарное количество сборок мусора.
+     *
+     * @return количество сборок.
+     */
+    private long getGcCount() {
+        long result = 0;
+        for (GarbageCollectorMXBean gcBean : gcBeans) {
+            result += Math.max(0, gcBean.getCollectionCount());
+        }
+        return result;
+    }
+
+    /**
+     * Метод, возвращающий занятость кучи после последней сборки мусора в каждой ее области.
+     *
+     * @param usedNow текущая занятость кучи, если JVM не сообщает занятость после сборки.
+     * @return занятость кучи в байтах.
+     */
+    private long getHeapUsedAfterGc(long usedNow) {
+        if (heapPools.isEmpty()) return usedNow;
+        long result = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            result += pool.getCollectionUsage().getUsed();
+        }
+        return result;
+    }
+
+    /**
+     * Метод, возвращающий занятость памяти direct ByteBuffer, включая буферы, которые еще не освобождены
+     * сборщиком мусора.
+     *
+     * @return доля занятой direct памяти.
+     */
+    private double getDirectUsage() {
+        if (directPool == null) return 0;
+        return (double) directPool.getMemoryUsed() / maxDirectMemory;
+    }
+
+    /**
+     * Метод, возвращающий наибольший объем памяти direct ByteBuffer: -XX:MaxDirectMemorySize или,
+     * если он не задан, наибольший размер кучи.
+     *
+     * @return объем памяти в байтах.
+     */
+    private static long getMaxDirectMemory() {
+        try {
+            var diagnosticBean = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            if (diagnosticBean != null) {
+                var value = Long.parseLong(diagnosticBean.getVMOption("MaxDirectMemorySize").getValue());
+                if (value > 0) return value;
+            }
+        } catch (IllegalArgumentException e) {
+            // JVM без этого параметра, используется значение по умолчанию
+        }
+        return Runtime.getRuntime().maxMemory();
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private static long toMegabytes(long bytes) {
+        return bytes >> 20;
+    }
+}
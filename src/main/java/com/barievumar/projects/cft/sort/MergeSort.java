@@ -3,9 +3,7 @@ package com.barievumar.projects.cft.sort;
 import com.barievumar.projects.cft.enums.DataType;
 import com.barievumar.projects.cft.enums.SortDirection;
 
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.List;
@@ -41,13 +39,26 @@ public class MergeSort {
      * @see SortDirection
      */
     public static void sortAndWrite(DataType dataType, SortDirection sortDirection, Path outputFile, Path... inputFiles) throws IOException {
-        var sortResult = MergeSort.sort(dataType, sortDirection, inputFiles);
+        sortAndWrite(dataType, sortDirection, new SortOptions(), outputFile, inputFiles);
+    }
 
-        try (PrintWriter outputStream = new PrintWriter(new FileWriter(outputFile.toString()))) {
-            for (Object i : sortResult) {
-                outputStream.println(i);
-            }
-        }
+    /**
+     * Метод, выполняющий сортировку входных файлов и запись значений в выходной файл.
+     *
+     * @param dataType      тип входных данных.
+     * @param sortDirection направление сортировки
+     * @param options       дополнительные параметры сортировки.
+     * @param outputFile    путь к выходному файлу
+     * @param inputFiles    пути к входным файлам.
+     * @see DataType
+     * @see SortDirection
+     * @see SortOptions
+     */
+    public static void sortAndWrite(DataType dataType, SortDirection sortDirection, SortOptions options,
+                                    Path outputFile, Path... inputFiles) throws IOException {
+        logger.info("Started merging files");
+        filesMergeSorts.get(dataType).sortAndWrite(sortDirection, options, outputFile, inputFiles);
+        logger.info("Files merged successfully.");
 
         logger.info("Successfully written in the file. Check merging result in file " + outputFile);
     }
@@ -0,0 +1,366 @@
+package com.barievumar.projects.cft.sort;
+
+import com.barievumar.projects.cft.enums.SortDirection;
+import com.barievumar.projects.cft.runs.RunBuffer;
+import com.barievumar.projects.cft.runs.RunFile;
+import com.barievumar.projects.cft.runs.RunWriter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Класс, собирающий значения входных файлов в отсортированные серии в пределах бюджета памяти.
+ * Значения каждого входного файла образуют свою серию. Пока серии помещаются в бюджет, они остаются в памяти,
+ * иначе самые большие из них сортируются и сбрасываются во временные файлы.
+ * Для каждой серии запоминается ее место в порядке входных данных: номер входного файла, номер части файла
+ * при параллельном чтении и номер серии в части. По номеру файла серии одного файла можно заменить одной серией
+ * из кэша, а по порядку серий слияние выводит записи с равными ключами в порядке входных файлов и строк.
+ *
+ * @see MemoryBudget
+ */
+class RunCollector implements AutoCloseable {
+    /**
+     * Логгер.
+     */
+    public static Logger logger = Logger.getGlobal();
+
+    /**
+     * Количество добавленных значений, через которое проверяется состояние памяти.
+     */
+    private static final int CHECK_INTERVAL = 4096;
+
+    /**
+     * Фабрика буферов серий.
+     */
+    private final Supplier<RunBuffer> bufferFactory;
+    /**
+     * Направление сортировки.
+     */
+    private final SortDirection sortDirection;
+    /**
+     * Бюджет памяти задания.
+     */
+    private final MemoryBudget budget;
+
+    /**
+     * Отсортированные серии, оставшиеся в памяти.
+     */
+    private final List<RunBuffer> memoryRuns = new ArrayList<>();
+    /**
+     * Серии, сброшенные во временные файлы.
+     */
+    private final List<RunFile> fileRuns = new ArrayList<>();
+    /**
+     * Объем памяти, занимаемой сериями в memoryRuns.
+     */
+    private long memoryRunsBytes;
+    /**
+     * Места в порядке входных данных серий в памяти и во временных файлах, см. getOrder.
+     */
+    private final Map<Object, Long> runOrders = new IdentityHashMap<>();
+    /**
+     * Номер текущего входного файла, начиная с 0.
+     */
+    private int currentInput;
+    /**
+     * Номер следующей серии текущего входного файла при чтении в одном потоке.
+     */
+    private int nextRunIndex;
+
+    /**
+     * Буфер серии текущего входного файла.
+     */
+    private RunBuffer current;
+    /**
+     * Количество значений, добавленных с последней проверки памяти.
+     */
+    private int addedSinceCheck;
+
+    /**
+     * Конструктор
+     *
+     * @param bufferFactory фабрика буферов серий.
+     * @param sortDirection направление сортировки.
+     * @param budget        бюджет памяти задания.
+     */
+    RunCollector(Supplier<RunBuffer> bufferFactory, SortDirection sortDirection, MemoryBudget budget) {
+        this.bufferFactory = bufferFactory;
+        this.sortDirection = sortDirection;
+        this.budget = budget;
+    }
+
+    /**
+     * Метод, добавляющий значение в серию текущего входного файла.
+     *
+     * @param bytes  массив, содержащий значение в UTF-8.
+     * @param offset смещение значения в массиве.
+     * @param length длина значения в байтах.
+     * @throws NumberFormatException если значение не соответствует типу данных.
+     */
+    void add(byte[] bytes, int offset, int length) {
+        if (current == null) current = bufferFactory.get();
+        current.add(bytes, offset, length);
+
+        if (++addedSinceCheck < CHECK_INTERVAL) return;
+        addedSinceCheck = 0;
+        try {
+            if (budget.isMemoryTight()) {
+                budget.shrink();
+                spillAll();
+            } else if (memoryRunsBytes + current.byteSize() > budget.getRunBytes()) {
+                spillToFitBudget();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Метод, завершающий серию текущего входного файла. Серия сортируется и остается в памяти,
+     * если помещается в бюджет.
+     */
+    void finishInput() throws IOException {
+        var run = current;
+        current = null;
+        var order = nextOrder();
+        currentInput++;
+        nextRunIndex = 0;
+        if (run == null || run.size() == 0) return;
+
+        run.sort(sortDirection);
+        addMemoryRun(run, order);
+
+        while (memoryRunsBytes > budget.getRunBytes() && !memoryRuns.isEmpty()) {
+            spill(removeLargestMemoryRun());
+        }
+    }
+
+    /**
+     * Метод, добавляющий уже отсортированную серию, например серию части файла при параллельном чтении.
+     * Может вызываться из нескольких потоков, но не вместе с add() и finishInput().
+     *
+     * @param run   отсортированная серия.
+     * @param chunk номер части файла.
+     * @param index номер серии в части.
+     * @see ChunkedFileReader
+     */
+    synchronized void addSortedRun(RunBuffer run, int chunk, int index) throws IOException {
+        if (run.size() == 0) return;
+        addMemoryRun(run, toOrder(currentInput, chunk, index));
+
+        if (budget.isMemoryTight()) {
+            budget.shrink();
+            while (!memoryRuns.isEmpty()) {
+                spill(removeLargestMemoryRun());
+            }
+        }
+        while (memoryRunsBytes > budget.getRunBytes() && !memoryRuns.isEmpty()) {
+            spill(removeLargestMemoryRun());
+        }
+    }
+
+    /**
+     * Метод, добавляющий серию текущего входного файла, уже записанную в файл, например серию из кэша.
+     *
+     * @param run серия в файле.
+     */
+    void addFileRun(RunFile run) {
+        fileRuns.add(run);
+        runOrders.put(run, nextOrder());
+    }
+
+    /**
+     * Метод, заменяющий все серии входного файла одной серией. Серии в памяти освобождаются,
+     * временные файлы удаляются.
+     *
+     * @param input номер входного файла.
+     * @param run   серия, заменяющая серии входного файла.
+     */
+    void replaceInputRuns(int input, RunFile run) {
+        for (RunBuffer memoryRun : getInputMemoryRuns(input)) {
+            memoryRuns.remove(memoryRun);
+            memoryRunsBytes -= memoryRun.byteSize();
+            runOrders.remove(memoryRun);
+        }
+        for (RunFile fileRun : getInputFileRuns(input)) {
+            fileRuns.remove(fileRun);
+            runOrders.remove(fileRun);
+            fileRun.delete();
+        }
+        fileRuns.add(run);
+        runOrders.put(run, toOrder(input, 0, 0));
+    }
+
+    /**
+     * Метод, возвращающий серии входного файла, оставшиеся в памяти.
+     *
+     * @param input номер входного файла.
+     * @return серии в памяти.
+     */
+    List<RunBuffer> getInputMemoryRuns(int input) {
+        var result = new ArrayList<RunBuffer>();
+        for (RunBuffer run : memoryRuns) {
+            if (getInput(run) == input) result.add(run);
+        }
+        return result;
+    }
+
+    /**
+     * Метод, возвращающий серии входного файла во временных файлах.
+     *
+     * @param input номер входного файла.
+     * @return серии во временных файлах.
+     */
+    List<RunFile> getInputFileRuns(int input) {
+        var result = new ArrayList<RunFile>();
+        for (RunFile run : fileRuns) {
+            if (getInput(run) == input) result.add(run);
+        }
+        return result;
+    }
+
+    List<RunBuffer> getMemoryRuns() {
+        return memoryRuns;
+    }
+
+    List<RunFile> getFileRuns() {
+        return fileRuns;
+    }
+
+    /**
+     * Метод, возвращающий место серии в порядке входных данных. Серии более раннего входного файла идут раньше,
+     * серии одного файла - в порядке частей файла и в порядке строк внутри части.
+     *
+     * @param run серия в памяти или во временном файле.
+     * @return число, по которому серии упорядочиваются.
+     */
+    long getOrder(Object run) {
+        return runOrders.get(run);
+    }
+
+    /**
+     * Метод, возвращающий номер входного файла серии.
+     *
+     * @param run серия в памяти или во временном файле.
+     * @return номер входного файла.
+     */
+    private int getInput(Object run) {
+        return (int) (getOrder(run) >>> 40);
+    }
+
+    /**
+     * Метод, возвращающий место следующей серии текущего входного файла при чтении в одном потоке.
+     *
+     * @return место серии в порядке входных данных.
+     */
+    private long nextOrder() {
+        return toOrder(currentInput, 0, nextRunIndex++);
+    }
+
+    /**
+     * Метод, составляющий место серии в порядке входных данных: 24 бита номера входного файла, 16 бит номера
+     * части файла и 24 бита номера серии в части.
+     *
+     * @param input номер входного файла.
+     * @param chunk номер части файла.
+     * @param index номер серии в части.
+     * @return место серии в порядке входных данных.
+     */
+    private static long toOrder(int input, int chunk, int index) {
+        return ((long) input << 40) | ((long) chunk << 24) | index;
+    }
+
+    /**
+     * Метод, сбрасывающий на диск серии в памяти, начиная с самых больших, пока текущая серия
+     * не поместится в бюджет. Если текущая серия сама больше бюджета, она тоже сбрасывается.
+     */
+    private void spillToFitBudget() throws IOException {
+        while (!memoryRuns.isEmpty() && memoryRunsBytes + current.byteSize() > budget.getRunBytes()) {
+            spill(removeLargestMemoryRun());
+        }
+        if (current.byteSize() > budget.getRunBytes()) {
+            current.sort(sortDirection);
+            spill(current);
+            current = bufferFactory.get();
+        }
+    }
+
+    /**
+     * Метод, сбрасывающий на диск все серии в памяти, включая текущую.
+     */
+    private void spillAll() throws IOException {
+        while (!memoryRuns.isEmpty()) {
+            spill(removeLargestMemoryRun());
+        }
+        if (current.size() > 0) {
+            current.sort(sortDirection);
+            spill(current);
+            current = bufferFactory.get();
+        }
+    }
+
+    /**
+     * Метод, добавляющий отсортированную серию в память.
+     *
+     * @param run   отсортированная серия.
+     * @param order место серии в порядке входных данных.
+     */
+    private void addMemoryRun(RunBuffer run, long order) {
+        memoryRuns.add(run);
+        memoryRunsBytes += run.byteSize();
+        runOrders.put(run, order);
+    }
+
+    /**
+     * Метод, удаляющий из списка самую большую серию в памяти.
+     *
+     * @return самая большая серия в памяти.
+     */
+    private RunBuffer removeLargestMemoryRun() {
+        var largestIndex = 0;
+        for (int i = 1; i < memoryRuns.size(); i++) {
+            if (memoryRuns.get(i).byteSize() > memoryRuns.get(largestIndex).byteSize()) largestIndex = i;
+        }
+        var run = memoryRuns.remove(largestIndex);
+        memoryRunsBytes -= run.byteSize();
+        return run;
+    }
+
+    /**
+     * Метод, записывающий отсортированную серию во временный файл.
+     *
+     * @param run отсортированная серия.
+     */
+    private void spill(RunBuffer run) throws IOException {
+        var path = RunFile.createTempFile();
+        RunFile runFile;
+        try (var writer = new RunWriter(path, budget.getBlockIo())) {
+            run.writeTo(writer);
+            runFile = new RunFile(path, writer.getRecords(), writer.getBytes());
+        } catch (IOException | RuntimeException e) {
+            // недописанный файл еще не попал в fileRuns, и close() его не удалит
+            Files.deleteIfExists(path);
+            throw e;
+        }
+        fileRuns.add(runFile);
+        // текущая серия еще не в runOrders, она следующая серия текущего входного файла
+        var order = runOrders.remove(run);
+        runOrders.put(runFile, order != null ? order : nextOrder());
+        logger.info("Spilled run of " + run.size() + " values (" + run.byteSize() / 1024 + " KB in memory) to " + runFile);
+    }
+
+    /**
+     * Метод, удаляющий временные файлы серий.
+     */
+    @Override
+    public void close() {
+        fileRuns.forEach(RunFile::delete);
+    }
+}
@@ -0,0 +1,373 @@
+package com.barievumar.projects.cft.sort;
+
+import com.barievumar.projects.cft.io.BlockIo;
+import com.barievumar.projects.cft.runs.RunCache;
+
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Дополнительные параметры задания сортировки, задаваемые аргументами вида --name или --name=value.
+ * Экземпляр создается на каждое задание, поэтому общие экземпляры FilesMergeSort остаются без состояния.
+ */
+public class SortOptions {
+    /**
+     * Префикс дополнительных параметров.
+     */
+    public static final String PREFIX = "--";
+    /**
+     * Максимальное количество серий, сливаемых за один шаг, по умолчанию.
+     * Ограничивает количество одновременно открытых временных файлов.
+     */
+    public static final int DEFAULT_MAX_FAN_IN = 64;
+
+    /**
+     * Хранить строки вне кучи, в виде UTF-8 байтов.
+     */
+    private boolean offHeap;
+    /**
+     * Объем памяти для серий в байтах, 0 - рассчитывается автоматически.
+     *
+     * @see MemoryBudget
+     */
+    private long runBytes;
+    /**
+     * Номер столбца-ключа, начиная с 1, 0 - строки файлов не разбиваются на столбцы.
+     */
+    private int keyColumn;
+    /**
+     * Разделитель столбцов в режиме записей.
+     */
+    private byte delimiter = '\t';
+    /**
+     * Максимальное количество серий, сливаемых за один шаг.
+     *
+     * @see com.barievumar.projects.cft.runs.MergePlan
+     */
+    private int maxFanIn = DEFAULT_MAX_FAN_IN;
+    /**
+     * Количество потоков для чтения одного большого файла по частям, 1 - файлы читаются в одном потоке.
+     *
+     * @see ChunkedFileReader
+     */
+    private int parseThreads = 1;
+    /**
+     * Записывать каждое значение в выходной файл один раз.
+     */
+    private boolean unique;
+    /**
+     * Каталог постоянного кэша отсортированных серий, null - кэш не используется.
+     *
+     * @see RunCache
+     */
+    private Path cacheDirectory;
+    /**
+     * Ограничение объема кэша серий в байтах.
+     */
+    private long cacheBytes = RunCache.DEFAULT_MAX_BYTES;
+    /**
+     * Количество буферов ввода-вывода на файл серии: 2 - двойная буферизация, 3 - тройная.
+     *
+     * @see BlockIo
+     */
+    private int ioBuffers = BlockIo.DEFAULT_BUFFER_COUNT;
+    /**
+     * Размер одного буфера ввода-вывода в байтах, 0 - рассчитывается автоматически.
+     */
+    private int ioBufferSize;
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    public long getRunBytes() {
+        return runBytes;
+    }
+
+    public void setRunBytes(long runBytes) {
+        this.runBytes = runBytes;
+    }
+
+    public int getKeyColumn() {
+        return keyColumn;
+    }
+
+    public void setKeyColumn(int keyColumn) {
+        this.keyColumn = keyColumn;
+    }
+
+    public byte getDelimiter() {
+        return delimiter;
+    }
+
+    public void setDelimiter(byte delimiter) {
+        this.delimiter = delimiter;
+    }
+
+    public int getMaxFanIn() {
+        return maxFanIn;
+    }
+
+    public void setMaxFanIn(int maxFanIn) {
+        this.maxFanIn = maxFanIn;
+    }
+
+    public int getParseThreads() {
+        return parseThreads;
+    }
+
+    public void setParseThreads(int parseThreads) {
+        this.parseThreads = parseThreads;
+    }
+
+    public boolean isUnique() {
+        return unique;
+    }
+
+    public void setUnique(boolean unique) {
+        this.unique = unique;
+    }
+
+    public Path getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    public void setCacheDirectory(Path cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    public long getCacheBytes() {
+        return cacheBytes;
+    }
+
+    public void setCacheBytes(long cacheBytes) {
+        this.cacheBytes = cacheBytes;
+    }
+
+    public int getIoBuffers() {
+        return ioBuffers;
+    }
+
+    public void setIoBuffers(int ioBuffers) {
+        this.ioBuffers = ioBuffers;
+    }
+
+    public int getIoBufferSize() {
+        return ioBufferSize;
+    }
+
+    public void setIoBufferSize(int ioBufferSize) {
+        this.ioBufferSize = ioBufferSize;
+    }
+
+    /**
+     * Метод, проверяющий, включен ли режим записей: строки файлов сортируются целиком по столбцу-ключу.
+     *
+     * @return true, если включен режим записей.
+     */
+    public boolean isRecordMode() {
+        return keyColumn > 0;
+    }
+
+    /**
+     * Метод, проверяющий, является ли аргумент дополнительным параметром.
+     *
+     * @param arg аргумент командной строки.
+     * @return true, если аргумент является дополнительным параметром.
+     */
+    public static boolean isOption(String arg) {
+        return arg.startsWith(PREFIX);
+    }
+
+    /**
+     * Метод, применяющий дополнительный параметр.
+     *
+     * @param arg аргумент командной строки вида --name или --name=value.
+     */
+    public void apply(String arg) {
+        var separatorIndex = arg.indexOf('=');
+        var name = separatorIndex < 0 ? arg.substring(PREFIX.length()) : arg.substring(PREFIX.length(), separatorIndex);
+        var value = separatorIndex < 0 ? null : arg.substring(separatorIndex + 1);
+
+        switch (name) {
+            case "off-heap" -> offHeap = true;
+            case "run-bytes" -> runBytes = parseSize(arg, value);
+            case "key" -> keyColumn = parseKeyColumn(arg, value);
+            case "delimiter" -> delimiter = parseDelimiter(arg, value);
+            case "max-fan-in" -> maxFanIn = parseMaxFanIn(arg, value);
+            case "parallel" -> parseThreads = parseThreads(arg, value);
+            case "unique" -> unique = true;
+            case "cache" -> cacheDirectory = parseDirectory(arg, value);
+            case "cache-size" -> cacheBytes = parseSize(arg, value);
+            case "io-buffers" -> ioBuffers = parseIoBuffers(arg, value);
+            case "io-buffer-size" -> ioBufferSize = parseIoBufferSize(arg, value);
+            default -> throw new IllegalArgumentException("Unknown option " + arg + "! Possible options: " + getNames());
+        }
+    }
+
+    /**
+     * Метод, возвращающий все возможные дополнительные параметры.
+     *
+     * @return все возможные дополнительные параметры.
+     */
+    public static List<String> getNames() {
+        return List.of("--off-heap", "--run-bytes=SIZE", "--key=COLUMN", "--delimiter=CHAR", "--max-fan-in=N", "--parallel[=THREADS]", "--unique", "--cache=DIR",
+                "--cache-size=SIZE", "--io-buffers=N", "--io-buffer-size=SIZE");
+    }
+
+    /**
+     * Метод, выполняющий парсинг номера столбца-ключа.
+     *
+     * @param arg   исходный аргумент, для сообщения об ошибке.
+     * @param value значение параметра.
+     * @return номер столбца, начиная с 1.
+     */
+    private static int parseKeyColumn(String arg, String value) {
+        try {
+            var column = Integer.parseInt(value);
+            if (column <= 0) throw new NumberFormatException();
+            return column;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Wrong value in option " + arg + "! Expected column number starting from 1.");
+        }
+    }
+
+    /**
+     * Метод, выполняющий парсинг максимального количества серий, сливаемых за один шаг.
+     *
+     * @param arg   исходный аргумент, для сообщения об ошибке.
+     * @param value значение параметра.
+     * @return количество серий, не меньше 2.
+     */
+    private static int parseMaxFanIn(String arg, String value) {
+        try {
+            var fanIn = Integer.parseInt(value);
+            if (fanIn < 2) throw new NumberFormatException();
+            return fanIn;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Wrong value in option " + arg + "! Expected number not less than 2.");
+        }
+    }
+
+    /**
+     * Метод, выполняющий парсинг количества потоков чтения. Без значения используются все доступные процессоры.
+     *
+     * @param arg   исходный аргумент, для сообщения об ошибке.
+     * @param value значение параметра.
+     * @return количество потоков.
+     */
+    private static int parseThreads(String arg, String value) {
+        if (value == null) return Runtime.getRuntime().availableProcessors();
+        try {
+            var threads = Integer.parseInt(value);
+            if (threads <= 0) throw new NumberFormatException();
+            return threads;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Wrong value in option " + arg + "! Expected positive number of threads.");
+        }
+    }
+
+    /**
+     * Метод, выполняющий парсинг количества буферов ввода-вывода на файл.
+     *
+     * @param arg   исходный аргумент, для сообщения об ошибке.
+     * @param value значение параметра.
+     * @return количество буферов, от 1 до BlockIo.MAX_BUFFER_COUNT.
+     */
+    private static int parseIoBuffers(String arg, String value) {
+        try {
+            var buffers = Integer.parseInt(value);
+            if (buffers < 1 || buffers > BlockIo.MAX_BUFFER_COUNT) throw new NumberFormatException();
+            return buffers;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Wrong value in option " + arg + "! Expected number from 1 to "
+                    + BlockIo.MAX_BUFFER_COUNT + ".");
+        }
+    }
+
+    /**
+     * Метод, выполняющий парсинг размера буфера ввода-вывода.
+     *
+     * @param arg   исходный аргумент, для сообщения об ошибке.
+     * @param value значение параметра.
+     * @return размер буфера в байтах.
+     */
+    private static int parseIoBufferSize(String arg, String value) {
+        var size = parseSize(arg, value);
+        if (size < 512 || size > 1L << 30) {
+            throw new IllegalArgumentException("Wrong value in option " + arg + "! Expected size from 512 to 1g.");
+        }
+        return (int) size;
+    }
+
+    /**
+     * Метод, выполняющий парсинг пути к каталогу.
+     *
+     * @param arg   исходный аргумент, для сообщения об ошибке.
+     * @param value значение параметра.
+     * @return путь к каталогу.
+     */
+    private static Path parseDirectory(String arg, String value) {
+        if (value == null || value.isEmpty()) throw new IllegalArgumentException("Option " + arg + " requires a directory!");
+        try {
+            return Path.of(value);
+        } catch (InvalidPathException e) {
+            throw new IllegalArgumentException("Wrong directory in option " + arg + "! " + e.getMessage());
+        }
+    }
+
+    /**
+     * Метод, выполняющий парсинг разделителя столбцов. Допускается один ASCII-символ, \t или tab.
+     *
+     * @param arg   исходный аргумент, для сообщения об ошибке.
+     * @param value значение параметра.
+     * @return разделитель.
+     */
+    private static byte parseDelimiter(String arg, String value) {
+        if ("tab".equals(value) || "\\t".equals(value)) return '\t';
+        if (value == null || value.length() != 1 || value.charAt(0) > 0x7F) {
+            throw new IllegalArgumentException("Wrong value in option " + arg + "! Expected single ASCII character.");
+        }
+        return (byte) value.charAt(0);
+    }
+
+    /**
+     * Метод, выполняющий парсинг размера в байтах. Допускаются суффиксы k, m и g.
+     *
+     * @param arg   исходный аргумент, для сообщения об ошибке.
+     * @param value значение параметра.
+     * @return размер в байтах.
+     */
+    private static long parseSize(String arg, String value) {
+        if (value == null || value.isEmpty()) throw new IllegalArgumentException("Option " + arg + " requires a value!");
+
+        var multiplier = switch (Character.toLowerCase(value.charAt(value.length() - 1))) {
+            case 'k' -> 1L << 10;
+            case 'm' -> 1L << 20;
+            case 'g' -> 1L << 30;
+            default -> 1L;
+        };
+        var digits = multiplier == 1 ? value : value.substring(0, value.length() - 1);
+        try {
+            var size = Math.multiplyExact(Long.parseLong(digits), multiplier);
+            if (size <= 0) throw new NumberFormatException();
+            return size;
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException("Wrong value in option " + arg + "! Expected positive size, e.g. 64m.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "offHeap=" + offHeap + ", runBytes=" + (runBytes > 0 ? runBytes : "auto") + ", maxFanIn=" + maxFanIn
+                + ", parseThreads=" + parseThreads + ", unique=" + unique
+                + ", ioBuffers=" + ioBuffers + ", ioBufferSize=" + (ioBufferSize > 0 ? ioBufferSize : "auto")
+                + (cacheDirectory != null ? ", cache=" + cacheDirectory + ", cacheBytes=" + cacheBytes : "")
+                + (isRecordMode() ? ", keyColumn=" + keyColumn + ", delimiter='" + (char) delimiter + "'" : "");
+    }
+}
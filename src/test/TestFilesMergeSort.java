@@ -1,11 +1,28 @@
 import com.barievumar.projects.cft.Main;
+import com.barievumar.projects.cft.io.BlockIo;
+import com.barievumar.projects.cft.io.FileChunk;
+import com.barievumar.projects.cft.io.FileSnapshot;
+import com.barievumar.projects.cft.runs.MergePlan;
+import com.barievumar.projects.cft.runs.RunReader;
+import com.barievumar.projects.cft.service.SortClient;
+import com.barievumar.projects.cft.service.SortServer;
+import com.barievumar.projects.cft.sort.MemoryBudget;
+import com.barievumar.projects.cft.sort.SortOptions;
 import org.junit.Test;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 import static org.junit.Assert.*;
@@ -23,6 +40,8 @@ public class TestFilesMergeSort {
     private final Path strFile3 = Path.of("src/test/resources/str_file_3.txt");
     private final Path wrongStrFile = Path.of("src/test/resources/str_file_with_mistakes.txt");
 
+    private final Path recordsFile = Path.of("src/test/resources/records_file.tsv");
+
     private final Path outputFile = Path.of("src/test/resources/output_file.txt");
 
     @Test
@@ -220,6 +239,505 @@ public class TestFilesMergeSort {
         assertEquals(actual, expected);
     }
 
+    @Test
+    public void testWithStringOffHeap() throws IOException {
+        Main.main(new String[]{"--off-heap", "-d", "-s", outputFile.toString(), strFile1.toString()
+                , strFile2.toString(), strFile3.toString(), wrongStrFile.toString()});
+
+        var expected = getStringContentAsc();
+        expected.addAll(List.of("tree", "giraffe", "money", "string", "string2", "-23"));
+        Collections.sort(expected);
+        Collections.reverse(expected);
+
+        var actual = Files.readAllLines(outputFile);
+
+        assertNotNull(actual);
+        assertEquals(actual, expected);
+    }
+
+    @Test
+    public void testWithRunsSpilledToDisk() throws IOException {
+        Main.main(new String[]{"--run-bytes=1", "-a", "-i", outputFile.toString(), intFile1.toString()
+                , intFile2.toString(), intFile3.toString(), wrongIntFile.toString()});
+
+        var expected = getIntContentAsc();
+        expected.addAll(List.of(8, 61, 27, 56, 23, -23));
+        Collections.sort(expected);
+
+        var actual = Files.readAllLines(outputFile)
+                .stream()
+                .map(Integer::parseInt)
+                .toList();
+
+        assertNotNull(actual);
+        assertEquals(actual, expected);
+    }
+
+    @Test
+    public void testWithSortService() throws Exception {
+        try (var server = new SortServer(0, 2, 2)) {
+            var serverThread = new Thread(() -> {
+                try {
+                    server.serve();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            serverThread.start();
+
+            var response = SortClient.send(server.getPort(), List.of("-d", "-i", outputFile.toString(),
+                    intFile1.toString(), intFile2.toString(), intFile3.toString()));
+            assertTrue(response.isSuccess());
+
+            var wrongResponse = SortClient.send(server.getPort(), List.of("-d", outputFile.toString()));
+            assertFalse(wrongResponse.isSuccess());
+        }
+
+        var expected = getIntContentAsc();
+        Collections.reverse(expected);
+
+        var actual = Files.readAllLines(outputFile)
+                .stream()
+                .map(Integer::parseInt)
+                .toList();
+
+        assertEquals(actual, expected);
+    }
+
+    @Test
+    public void testSortServiceDropsIdleClient() throws Exception {
+        try (var server = new SortServer(0, 1, 2, 200)) {
+            var serverThread = new Thread(() -> {
+                try {
+                    server.serve();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            serverThread.start();
+
+            // клиент, не передающий запрос, не должен занимать единственный рабочий поток
+            try (var idle = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                var response = SortClient.send(server.getPort(), List.of("-i", outputFile.toString(),
+                        intFile1.toString()));
+                assertTrue(response.isSuccess());
+
+                var input = new DataInputStream(idle.getInputStream());
+                assertFalse(input.readBoolean());
+                var message = new byte[input.readInt()];
+                input.readFully(message);
+                assertTrue(new String(message, StandardCharsets.UTF_8).startsWith("Malformed request"));
+            }
+        }
+    }
+
+    @Test
+    public void testSortServiceDropsTricklingClient() throws Exception {
+        try (var server = new SortServer(0, 1, 2, 300)) {
+            var serverThread = new Thread(() -> {
+                try {
+                    server.serve();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            serverThread.start();
+
+            // клиент, передающий запрос по байту, укладывается в тайм-аут каждого чтения, но не всего запроса
+            try (var trickling = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                var writer = new Thread(() -> {
+                    try {
+                        var output = new DataOutputStream(trickling.getOutputStream());
+                        output.writeInt(1);
+                        output.writeShort(100);
+                        for (int i = 0; i < 100; i++) {
+                            Thread.sleep(100);
+                            output.write('a');
+                            output.flush();
+                        }
+                    } catch (IOException | InterruptedException e) {
+                        // сервер закрыл соединение
+                    }
+                });
+                writer.setDaemon(true);
+                writer.start();
+
+                var start = System.nanoTime();
+                var input = new DataInputStream(trickling.getInputStream());
+                assertFalse(input.readBoolean());
+                var message = new byte[input.readInt()];
+                input.readFully(message);
+                assertTrue(new String(message, StandardCharsets.UTF_8).startsWith("Malformed request"));
+                assertTrue(System.nanoTime() - start < 2_000_000_000L);
+            }
+        }
+    }
+
+    @Test
+    public void testMemoryBudgetSharedByNewJobs() throws InterruptedException {
+        var options = new SortOptions();
+        try (var first = MemoryBudget.forJob(1, options)) {
+            var alone = first.getRunBytes();
+            try (var second = MemoryBudget.forJob(1, options)) {
+                // при следующей проверке первое задание уступает половину своей доли второму
+                Thread.sleep(60);
+                first.isMemoryTight();
+                assertTrue(first.getRunBytes() < alone);
+                assertTrue(first.getRunBytes() + second.getRunBytes() <= alone);
+            }
+        }
+    }
+
+    @Test
+    public void testMemoryBudgetLimitedByDirectMemory() {
+        var options = new SortOptions();
+        long heapRunBytes;
+        try (var budget = MemoryBudget.forJob(1, options)) {
+            heapRunBytes = budget.getRunBytes();
+        }
+        // direct память по умолчанию равна размеру кучи, а буфер серии вне кучи растет удвоением
+        options.setOffHeap(true);
+        try (var budget = MemoryBudget.forJob(1, options)) {
+            assertTrue(budget.getRunBytes() <= Math.max(1 << 20, Runtime.getRuntime().maxMemory() / 4));
+            assertTrue(budget.getRunBytes() <= heapRunBytes);
+        }
+    }
+
+    @Test
+    public void testWithRecordsByIntegerKey() throws IOException {
+        Main.main(new String[]{"--key=2", "-a", "-i", outputFile.toString(), recordsFile.toString()});
+
+        var expected = List.of("petrov\t-7\tkazan", "popov\t0\ttver", "ivanov\t42\tmoscow",
+                "smirnov\t42\tperm", "kuznetsov\t1000\tsochi");
+
+        var actual = Files.readAllLines(outputFile);
+
+        assertNotNull(actual);
+        assertEquals(actual, expected);
+    }
+
+    @Test
+    public void testWithRecordsByStringKeyOffHeap() throws IOException {
+        Main.main(new String[]{"--key=3", "--delimiter=tab", "--off-heap", "-d", "-s", outputFile.toString(),
+                recordsFile.toString()});
+
+        var expected = List.of("popov\t0\ttver", "kuznetsov\t1000\tsochi", "smirnov\t42\tperm",
+                "sidorov\tabc\tomsk", "ivanov\t42\tmoscow", "petrov\t-7\tkazan");
+
+        var actual = Files.readAllLines(outputFile);
+
+        assertNotNull(actual);
+        assertEquals(actual, expected);
+    }
+
+    @Test
+    public void testWithMultiPassMerge() throws IOException {
+        Main.main(new String[]{"--max-fan-in=2", "--run-bytes=1", "-d", "-i", outputFile.toString(),
+                intFile1.toString(), intFile2.toString(), intFile3.toString(), wrongIntFile.toString()});
+
+        var expected = getIntContentAsc();
+        expected.addAll(List.of(8, 61, 27, 56, 23, -23));
+        Collections.sort(expected);
+        Collections.reverse(expected);
+
+        var actual = Files.readAllLines(outputFile)
+                .stream()
+                .map(Integer::parseInt)
+                .toList();
+
+        assertNotNull(actual);
+        assertEquals(actual, expected);
+    }
+
+    @Test
+    public void testMergePlanMergesSmallestRunsFirst() {
+        var plan = MergePlan.create(new long[]{5, 1, 4, 2, 3}, 3);
+
+        assertEquals(2, plan.getSteps().size());
+        assertArrayEquals(new int[]{1, 3, 4}, plan.getSteps().get(0).getInputs());
+        assertArrayEquals(new int[]{2, 0, 5}, plan.getSteps().get(1).getInputs());
+        assertEquals(6, plan.getRewrittenBytes());
+        assertEquals(2, plan.getPasses());
+    }
+
+    @Test
+    public void testStableMergePlanMergesAdjacentRuns() {
+        var plan = MergePlan.create(new long[]{5, 1, 4, 2, 3}, 3, true);
+
+        assertEquals(2, plan.getSteps().size());
+        assertArrayEquals(new int[]{1, 2, 3}, plan.getSteps().get(0).getInputs());
+        assertArrayEquals(new int[]{0, 5, 4}, plan.getSteps().get(1).getInputs());
+        assertEquals(7, plan.getRewrittenBytes());
+    }
+
+    @Test
+    public void testWithRecordsWithEqualKeysInInputOrder() throws IOException {
+        var firstFile = Files.createTempFile("cft-test-", ".txt");
+        var secondFile = Files.createTempFile("cft-test-", ".txt");
+        try {
+            Files.writeString(firstFile, "k1 a\nk1 b\nk0 c\n");
+            Files.writeString(secondFile, "k1 x\nk1 y\nk0 z\n");
+            var expected = List.of("k0 c", "k0 z", "k1 a", "k1 b", "k1 x", "k1 y");
+
+            // порядок записей с равными ключами не зависит от того, как серии сбрасывались на диск и сливались
+            for (String runBytes : List.of("--run-bytes=64m", "--run-bytes=1")) {
+                Main.main(new String[]{runBytes, "--max-fan-in=2", "--key=1", "--delimiter= ", "-a", "-s",
+                        outputFile.toString(), firstFile.toString(), secondFile.toString()});
+                assertEquals(expected, Files.readAllLines(outputFile));
+            }
+        } finally {
+            Files.delete(firstFile);
+            Files.delete(secondFile);
+        }
+    }
+
+    @Test
+    public void testWithParallelChunks() throws IOException {
+        var bigFile = Files.createTempFile("cft-test-", ".txt");
+        try {
+            var expected = writeIntFileOfTwoChunks(bigFile, true);
+
+            var chunks = FileChunk.split(bigFile, 4);
+            assertEquals(4, chunks.size());
+            assertEquals(Files.size(bigFile), chunks.get(3).getEnd());
+            for (FileChunk chunk : chunks) {
+                try (var input = chunk.newInputStream()) {
+                    var bytes = input.readAllBytes();
+                    assertEquals(chunk.getEnd() - chunk.getStart(), bytes.length);
+                    assertEquals('\n', bytes[bytes.length - 1]);
+                }
+            }
+
+            Main.main(new String[]{"--parallel=2", "-a", "-i", outputFile.toString(), bigFile.toString()});
+
+            var actual = Files.readAllLines(outputFile)
+                    .stream()
+                    .map(Integer::parseInt)
+                    .toList();
+
+            assertEquals(actual, expected);
+        } finally {
+            Files.delete(bigFile);
+        }
+    }
+
+    @Test
+    public void testWithLowCardinalityIntegers() throws IOException {
+        var repeatedFile = Files.createTempFile("cft-test-", ".txt");
+        try {
+            var expected = new ArrayList<Integer>();
+            var content = new StringBuilder();
+            for (int i = 0; i < 50_000; i++) {
+                var value = (i * 7919) % 20 - 10;
+                expected.add(value);
+                content.append(value).append('\n');
+            }
+            Files.writeString(repeatedFile, content);
+            expected.addAll(getIntContentAsc());
+            Collections.sort(expected);
+            Collections.reverse(expected);
+
+            Main.main(new String[]{"-d", "-i", outputFile.toString(), repeatedFile.toString(),
+                    intFile1.toString(), intFile2.toString(), intFile3.toString()});
+
+            var actual = Files.readAllLines(outputFile)
+                    .stream()
+                    .map(Integer::parseInt)
+                    .toList();
+
+            assertEquals(actual, expected);
+        } finally {
+            Files.delete(repeatedFile);
+        }
+    }
+
+    @Test
+    public void testWithCardinalityGrowingWithinRun() throws IOException {
+        var mixedFile = Files.createTempFile("cft-test-", ".txt");
+        try {
+            // выборка серии состоит из повторов, а дальше почти все значения различные
+            var expected = new ArrayList<String>();
+            for (int i = 0; i < 20_000; i++) {
+                expected.add("status" + i % 4);
+            }
+            for (int i = 0; i < 60_000; i++) {
+                expected.add(i % 1000 == 0 ? "status" + i % 4 : "id" + i);
+            }
+            Files.write(mixedFile, expected);
+            expected.sort(Comparator.naturalOrder());
+
+            for (String storage : List.of("--run-bytes=64m", "--off-heap")) {
+                Main.main(new String[]{storage, "-a", "-s", outputFile.toString(), mixedFile.toString()});
+                assertEquals(expected, Files.readAllLines(outputFile));
+            }
+        } finally {
+            Files.delete(mixedFile);
+        }
+    }
+
+    @Test
+    public void testWithLowCardinalityStringsOffHeap() throws IOException {
+        var repeatedFile = Files.createTempFile("cft-test-", ".txt");
+        var uniqueFile = Files.createTempFile("cft-test-", ".txt");
+        try {
+            var values = List.of("\uD83D\uDE00", "\uFF21", "b");
+            var lines = new ArrayList<String>();
+            var repeated = new StringBuilder();
+            for (int i = 0; i < 20_000; i++) {
+                lines.add(values.get(i % values.size()));
+                repeated.append(values.get(i % values.size())).append('\n');
+            }
+            var unique = new StringBuilder();
+            for (int i = 0; i < 10_000; i++) {
+                lines.add("u" + i);
+                unique.append("u").append(i).append('\n');
+            }
+            lines.addAll(List.of("\uFF21z", "\uD83D\uDE00z"));
+            unique.append("\uFF21z\n\uD83D\uDE00z\n");
+            Files.writeString(repeatedFile, repeated);
+            Files.writeString(uniqueFile, unique);
+
+            // вне кучи строки сортируются по кодовым точкам, как байты UTF-8
+            lines.sort(Comparator.comparing(line -> line.getBytes(StandardCharsets.UTF_8), Arrays::compareUnsigned));
+
+            Main.main(new String[]{"--off-heap", "-a", "-s", outputFile.toString(), repeatedFile.toString(),
+                    uniqueFile.toString()});
+
+            assertEquals(Files.readAllLines(outputFile), lines);
+        } finally {
+            Files.delete(repeatedFile);
+            Files.delete(uniqueFile);
+        }
+    }
+
+    @Test
+    public void testWithStringUnique() throws IOException {
+        Main.main(new String[]{"--unique", "-a", "-s", outputFile.toString(), strFile1.toString()
+                , strFile2.toString(), strFile1.toString(), strFile3.toString()});
+
+        var expected = getStringContentAsc().stream().distinct().toList();
+
+        var actual = Files.readAllLines(outputFile);
+
+        assertNotNull(actual);
+        assertEquals(actual, expected);
+    }
+
+    @Test
+    public void testWithTripleBufferedRunIo() throws IOException {
+        Main.main(new String[]{"--io-buffers=3", "--io-buffer-size=512", "--run-bytes=1", "--max-fan-in=2", "-a", "-i"
+                , outputFile.toString(), intFile1.toString(), intFile2.toString(), intFile3.toString()});
+
+        var expected = getIntContentAsc();
+
+        var actual = Files.readAllLines(outputFile)
+                .stream()
+                .map(Integer::parseInt)
+                .toList();
+
+        assertNotNull(actual);
+        assertEquals(actual, expected);
+    }
+
+    @Test
+    public void testWithRunCache() throws IOException {
+        var cacheDirectory = Files.createTempDirectory("cft-cache-test");
+        try {
+            var args = new String[]{"--cache=" + cacheDirectory, "--run-bytes=1", "-a", "-i", outputFile.toString()
+                    , intFile1.toString(), intFile2.toString(), intFile3.toString()};
+            var expected = getIntContentAsc();
+
+            Main.main(args);
+            assertEquals(Files.readAllLines(outputFile).stream().map(Integer::parseInt).toList(), expected);
+            try (var entries = Files.list(cacheDirectory)) {
+                assertEquals(6, entries.count());
+            }
+
+            // второй запуск берет серии из кэша и не удаляет их после слияния
+            Main.main(args);
+            assertEquals(Files.readAllLines(outputFile).stream().map(Integer::parseInt).toList(), expected);
+            try (var entries = Files.list(cacheDirectory)) {
+                assertEquals(6, entries.count());
+            }
+
+            // серия с неверной длиной записи не сливается, а заменяется новой
+            Path damagedRun;
+            try (var entries = Files.list(cacheDirectory)) {
+                damagedRun = entries.filter(entry -> entry.toString().endsWith(".run")).findFirst().orElseThrow();
+            }
+            var bytes = Files.readAllBytes(damagedRun);
+            System.arraycopy(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F}, 0, bytes, 0, 5);
+            Files.write(damagedRun, bytes);
+            Main.main(args);
+            assertEquals(Files.readAllLines(outputFile).stream().map(Integer::parseInt).toList(), expected);
+            try (var entries = Files.list(cacheDirectory)) {
+                assertEquals(6, entries.count());
+            }
+            try (var reader = new RunReader(damagedRun, new BlockIo(1, 1024))) {
+                while (reader.next()) {
+                    assertTrue(reader.getRecordLength() <= RunReader.MAX_RECORD);
+                }
+            }
+        } finally {
+            try (var entries = Files.list(cacheDirectory)) {
+                for (Path entry : entries.toList()) {
+                    Files.delete(entry);
+                }
+            }
+            Files.delete(cacheDirectory);
+        }
+    }
+
+    @Test
+    public void testWithRunCacheOfParallelChunks() throws IOException {
+        var bigFile = Files.createTempFile("cft-test-", ".txt");
+        var cacheDirectory = Files.createTempDirectory("cft-cache-test");
+        try {
+            var expected = writeIntFileOfTwoChunks(bigFile, false);
+
+            // хэш файла, прочитанного по частям, проверяется по тем же частям и замечает замену байта
+            var snapshot = FileSnapshot.capture(bigFile);
+            for (FileChunk chunk : FileChunk.split(bigFile, 4)) {
+                try (var input = snapshot.hashing(chunk.newInputStream(), chunk.getStart())) {
+                    input.readAllBytes();
+                }
+            }
+            assertTrue(snapshot.isComplete());
+            assertTrue(snapshot.matchesFile());
+
+            // временный файл и серия без описания, оставшиеся после сбоя, удаляются при сохранении в кэш
+            var staleTime = FileTime.fromMillis(System.currentTimeMillis() - 2 * 60 * 60 * 1000);
+            var staleTemp = Files.writeString(cacheDirectory.resolve("cft-run-1.tmp"), "stale");
+            var staleRun = Files.writeString(cacheDirectory.resolve("0123456789abcdef.run"), "stale");
+            Files.setLastModifiedTime(staleTemp, staleTime);
+            Files.setLastModifiedTime(staleRun, staleTime);
+
+            var args = new String[]{"--parallel=2", "--cache=" + cacheDirectory, "-a", "-i", outputFile.toString()
+                    , bigFile.toString()};
+            Main.main(args);
+            assertEquals(Files.readAllLines(outputFile).stream().map(Integer::parseInt).toList(), expected);
+            try (var entries = Files.list(cacheDirectory)) {
+                assertEquals(2, entries.count());
+            }
+            Main.main(args);
+            assertEquals(Files.readAllLines(outputFile).stream().map(Integer::parseInt).toList(), expected);
+
+            var modified = Files.getLastModifiedTime(bigFile);
+            var bytes = Files.readAllBytes(bigFile);
+            bytes[bytes.length / 2] = bytes[bytes.length / 2] == '1' ? (byte) '2' : (byte) '1';
+            Files.write(bigFile, bytes);
+            Files.setLastModifiedTime(bigFile, modified);
+            assertFalse(snapshot.matchesFile());
+        } finally {
+            Files.delete(bigFile);
+            try (var entries = Files.list(cacheDirectory)) {
+                for (Path entry : entries.toList()) {
+                    Files.delete(entry);
+                }
+            }
+            Files.delete(cacheDirectory);
+        }
+    }
 
     public List<Integer> getIntContentAsc() throws IOException {
         var file1Content = Files.readAllLines(intFile1).stream().map(Integer::parseInt).toList();
@@ -235,6 +753,21 @@ public class TestFilesMergeSort {
         return result;
     }
 
+    public List<Integer> writeIntFileOfTwoChunks(Path file, boolean withWrongLine) throws IOException {
+        // части параллельного чтения не меньше 1 МБ, поэтому файл чуть больше 2 МБ читается по частям
+        var expected = new ArrayList<Integer>();
+        var content = new StringBuilder();
+        for (int i = 0; content.length() <= 2 << 20; i++) {
+            var value = (int) ((i * 2654435761L) % 2_000_000_000) - 1_000_000_000;
+            expected.add(value);
+            content.append(value).append('\n');
+            if (withWrongLine && i == 100_000) content.append("wrong\n");
+        }
+        Files.writeString(file, content);
+        Collections.sort(expected);
+        return expected;
+    }
+
     public List<String> getStringContentAsc() throws IOException {
         var file1Content = Files.readAllLines(strFile1).stream().map(String::trim).toList();
         var file2Content = Files.readAllLines(strFile2).stream().map(String::trim).toList();